@@ -0,0 +1,25 @@
+#!/bin/bash
+#
+# Compile and run the RPKG benchmarks with the JDK alone.
+#
+#   ./bench.sh [options] [all|init|lookup|chain|footprint|module]*
+#
+# See 'syntelos.rpkg.bench.Main -help'.
+#
+build=${TMPDIR:-/tmp}/rpkg-bench-classes
+
+if rm -rf ${build} && mkdir -p ${build} &&
+        javac -nowarn -d ${build} $(find src bench -name '*.java') 2>&1 | egrep -v '^Note:'
+then
+    :
+fi
+
+if [ -f ${build}/syntelos/rpkg/bench/Main.class ]
+then
+    exec java -cp ${build} syntelos.rpkg.bench.Main "$@"
+else
+    cat<<EOF2>&2
+$0 error from 'javac -d ${build}'.
+EOF2
+    exit 1
+fi
@@ -0,0 +1,176 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Synthetic class path: a number of jars, each with a number of
+ * sealed packages listed in its manifest.  Each package holds one
+ * (empty) class "C" and one resource "r.txt".
+ * 
+ * Package names are "bench.t{tail}.j{jar}.p{package}" followed by
+ * 'depth' unsealed sub package segments for lookup names.
+ */
+public final class Classpath
+    extends Object
+{
+    public final File dir;
+    public final int tails, jars, packages;
+    public final File[][] files;
+
+
+    /**
+     * @param dir Output directory
+     * @param tails Number of disjoint class path tails
+     * @param jars Number of jars in each tail
+     * @param packages Number of sealed packages in each jar
+     */
+    public Classpath(File dir, int tails, int jars, int packages)
+        throws IOException
+    {
+        super();
+        this.dir = dir;
+        this.tails = tails;
+        this.jars = jars;
+        this.packages = packages;
+        this.files = new File[tails][jars];
+        dir.mkdirs();
+        for (int t = 0; t < tails; t++){
+            for (int j = 0; j < jars; j++){
+                File file = new File(dir,"t"+t+"-j"+j+".jar");
+                if (!file.isFile()){
+                    Write(file,t,j,packages);
+                }
+                this.files[t][j] = file;
+            }
+        }
+    }
+
+
+    public static String Package(int t, int j, int p){
+        return "bench.t"+t+".j"+j+".p"+p;
+    }
+    /**
+     * @return Class loader over the jars of a tail
+     */
+    public URLClassLoader loader(int t, ClassLoader parent)
+        throws IOException
+    {
+        URL[] urls = new URL[this.jars];
+        for (int j = 0; j < this.jars; j++){
+            urls[j] = this.files[t][j].toURI().toURL();
+        }
+        return new URLClassLoader(urls,parent);
+    }
+    /**
+     * @return Class loader over the jars of all tails
+     */
+    public URLClassLoader loader(ClassLoader parent)
+        throws IOException
+    {
+        URL[] urls = new URL[this.tails*this.jars];
+        for (int t = 0, x = 0; t < this.tails; t++){
+            for (int j = 0; j < this.jars; j++){
+                urls[x++] = this.files[t][j].toURI().toURL();
+            }
+        }
+        return new URLClassLoader(urls,parent);
+    }
+
+    private static void Write(File file, int t, int j, int packages)
+        throws IOException
+    {
+        Manifest man = new Manifest();
+        man.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION,"1.0");
+        for (int p = 0; p < packages; p++){
+            Attributes attr = new Attributes();
+            attr.put(Attributes.Name.SEALED,"true");
+            attr.put(Attributes.Name.IMPLEMENTATION_TITLE,"bench.t"+t+".j"+j);
+            attr.put(Attributes.Name.IMPLEMENTATION_VERSION,"1."+(j % 10)+".0");
+            attr.put(Attributes.Name.IMPLEMENTATION_VENDOR,"vendor"+(t % 4));
+            attr.put(Attributes.Name.SPECIFICATION_TITLE,"bench");
+            attr.put(Attributes.Name.SPECIFICATION_VERSION,"1.0");
+            attr.put(Attributes.Name.SPECIFICATION_VENDOR,"vendor"+(t % 4));
+            man.getEntries().put(Package(t,j,p).replace('.','/')+"/",attr);
+        }
+        File tmp = new File(file.getPath()+".tmp");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(tmp),man);
+        try {
+            for (int p = 0; p < packages; p++){
+                String pkg = Package(t,j,p).replace('.','/');
+
+                out.putNextEntry(new JarEntry(pkg+"/C.class"));
+                out.write(Class(pkg+"/C"));
+                out.closeEntry();
+
+                out.putNextEntry(new JarEntry(pkg+"/r.txt"));
+                out.write(pkg.getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)){
+            throw new IOException(file.getPath());
+        }
+    }
+    /**
+     * @param name Internal class name
+     * 
+     * @return Class file for an empty public class
+     */
+    private static byte[] Class(String name){
+        byte[] n = name.getBytes(StandardCharsets.UTF_8);
+        byte[] o = "java/lang/Object".getBytes(StandardCharsets.UTF_8);
+        java.io.ByteArrayOutputStream buf = new java.io.ByteArrayOutputStream();
+        java.io.DataOutputStream out = new java.io.DataOutputStream(buf);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+            out.writeShort(5);
+            out.writeByte(1); out.writeShort(n.length); out.write(n);
+            out.writeByte(7); out.writeShort(1);
+            out.writeByte(1); out.writeShort(o.length); out.write(o);
+            out.writeByte(7); out.writeShort(3);
+            out.writeShort(0x21);
+            out.writeShort(2);
+            out.writeShort(4);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.flush();
+        }
+        catch (IOException iox){
+            throw new IllegalStateException(iox);
+        }
+        return buf.toByteArray();
+    }
+}
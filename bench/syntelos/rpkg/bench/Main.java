@@ -0,0 +1,391 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.module.ModuleFinder;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import syntelos.rpkg.Package;
+
+/**
+ * RPKG benchmarks over a synthetic class path.
+ * 
+ * @see Classpath
+ */
+public final class Main
+    extends Object
+{
+    public static void usage(PrintStream out){
+        out.println();
+        out.println("Synopsis");
+        out.println();
+        out.println("    syntelos.rpkg.bench.Main [options] [all|init|lookup|chain|footprint|module]*");
+        out.println();
+        out.println("Options");
+        out.println();
+        out.println("    -tails N      Disjoint class path tails (4)");
+        out.println("    -jars N       Jars in each tail (50)");
+        out.println("    -packages N   Sealed packages in each jar (20)");
+        out.println("    -depth N      Unsealed sub package segments in lookup names (3)");
+        out.println("    -runs N       Init runs, each in a new JVM (5)");
+        out.println("    -warmup MS    Warm up time of each measurement (1000)");
+        out.println("    -time MS      Time of each measurement (2000)");
+        out.println("    -threads N    Most threads of concurrent delegation (cores, at least 4)");
+        out.println("    -parallel     Init with parallel manifest reading");
+        out.println("    -cache FILE   Init with the package cache file");
+        out.println("    -dir DIR      Synthetic class path directory");
+        out.println();
+        out.println("Description");
+        out.println();
+        out.println("    init       Init time of the whole class path, in new JVMs.");
+        out.println("    lookup     Package lookup throughput, latency and allocation.");
+        out.println("    chain      Class and resource delegation through merged tails.");
+        out.println("    footprint  Heap retained by the package store.");
+        out.println("    module     Init time of the class path jars as automatic modules,");
+        out.println("               and by resource scan, in new JVMs.");
+        out.println();
+    }
+
+    static int Tails = 4, Jars = 50, Packages = 20, Depth = 3, Runs = 5;
+
+    static int Threads = Math.max(4,Runtime.getRuntime().availableProcessors());
+
+    static boolean Parallel = false;
+
+    static String Cache = null;
+
+    static File Dir = new File(System.getProperty("java.io.tmpdir"),"rpkg-bench");
+
+
+    public static void main(String[] argv){
+        try {
+            List<String> commands = new ArrayList<>();
+            boolean once = false, module = false;
+            for (int argx = 0; argx < argv.length; argx++){
+                String arg = argv[argx];
+                switch(arg){
+                case "-tails":
+                    Tails = Integer.parseInt(argv[++argx]);
+                    break;
+                case "-jars":
+                    Jars = Integer.parseInt(argv[++argx]);
+                    break;
+                case "-packages":
+                    Packages = Integer.parseInt(argv[++argx]);
+                    break;
+                case "-depth":
+                    Depth = Integer.parseInt(argv[++argx]);
+                    break;
+                case "-runs":
+                    Runs = Integer.parseInt(argv[++argx]);
+                    break;
+                case "-warmup":
+                    Measure.Warmup = Long.parseLong(argv[++argx]);
+                    break;
+                case "-time":
+                    Measure.Time = Long.parseLong(argv[++argx]);
+                    break;
+                case "-threads":
+                    Threads = Integer.parseInt(argv[++argx]);
+                    break;
+                case "-parallel":
+                    Parallel = true;
+                    break;
+                case "-cache":
+                    Cache = argv[++argx];
+                    break;
+                case "-dir":
+                    Dir = new File(argv[++argx]);
+                    break;
+                case "-once":
+                    once = true;
+                    break;
+                case "-module":
+                    module = true;
+                    break;
+                case "-?":
+                case "-help":
+                    usage(System.out);
+                    System.exit(1);
+                    break;
+                default:
+                    if (arg.startsWith("-")){
+                        usage(System.err);
+                        System.exit(1);
+                    }
+                    else {
+                        commands.add(arg);
+                    }
+                    break;
+                }
+            }
+            Dir = new File(Dir,Tails+"x"+Jars+"x"+Packages);
+            Classpath cp = new Classpath(Dir,Tails,Jars,Packages);
+
+            if (once){
+                InitOnce(cp,module);
+            }
+            else {
+                PrintStream out = System.out;
+                out.printf("# %d tails x %d jars x %d packages = %d sealed packages, %s%n",Tails,Jars,Packages,(Tails*Jars*Packages),Dir);
+                if (commands.isEmpty()){
+                    commands.add("all");
+                }
+                for (String command : commands){
+                    switch(command){
+                    case "all":
+                        Lookup(out,cp);
+                        Chain(out,cp);
+                        Init(out,cp,false);
+                        break;
+                    case "init":
+                        Init(out,cp,false);
+                        break;
+                    case "module":
+                        Init(out,cp,false);
+                        Init(out,cp,true);
+                        break;
+                    case "lookup":
+                        Lookup(out,cp);
+                        break;
+                    case "chain":
+                        Chain(out,cp);
+                        break;
+                    case "footprint":
+                        Footprint(out,cp);
+                        break;
+                    default:
+                        usage(System.err);
+                        System.exit(1);
+                    }
+                }
+            }
+            System.exit(0);
+        }
+        catch (Throwable t){
+            t.printStackTrace();
+            System.exit(1);
+        }
+    }
+    /**
+     * Init of the whole class path in a new JVM for each run, so that
+     * each run is a cold start.
+     * 
+     * @param module Init the jars as automatic modules, in place of
+     * the resource scan of a class loader
+     */
+    static void Init(PrintStream out, Classpath cp, boolean module)
+        throws Exception
+    {
+        String java = new File(new File(System.getProperty("java.home"),"bin"),"java").getPath();
+        String label = "Init"+(module?" module":"")+(Parallel?" parallel":"")+((null != Cache)?" cache":"");
+        for (int run = 0; run < Runs; run++){
+            List<String> cmd = new ArrayList<>();
+            cmd.add(java);
+            cmd.add("-cp");
+            cmd.add(System.getProperty("java.class.path"));
+            if (null != Cache){
+                cmd.add("-Dsyntelos.rpkg.cache="+Cache);
+            }
+            cmd.add(Main.class.getName());
+            cmd.add("-once");
+            cmd.add("-tails"); cmd.add(String.valueOf(Tails));
+            cmd.add("-jars"); cmd.add(String.valueOf(Jars));
+            cmd.add("-packages"); cmd.add(String.valueOf(Packages));
+            cmd.add("-dir"); cmd.add(Dir.getParent());
+            if (Parallel){
+                cmd.add("-parallel");
+            }
+            if (module){
+                cmd.add("-module");
+            }
+            Process proc = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+            BufferedReader in = new BufferedReader(new InputStreamReader(proc.getInputStream()));
+            String line;
+            while (null != (line = in.readLine())){
+                out.printf("%-40s %s%n",label+" run "+run,line);
+            }
+            proc.waitFor();
+        }
+    }
+    static void InitOnce(Classpath cp, boolean module)
+        throws Exception
+    {
+        ClassLoader loader = cp.loader(ClassLoader.getSystemClassLoader());
+        long start = System.nanoTime();
+
+        if (module)
+            Package.Init(ModuleFinder.of(cp.dir.toPath()),loader);
+        else
+            Package.Init(loader,Parallel);
+
+        long end = System.nanoTime();
+        System.out.printf("%10.3f ms  %d packages%n",(end-start)/1e6,Package.getPackages().length);
+    }
+    static void Lookup(PrintStream out, Classpath cp)
+        throws Exception
+    {
+        ClassLoader loader = cp.loader(ClassLoader.getSystemClassLoader());
+        Package.Init(loader,Parallel);
+
+        final Random random = new Random(7);
+        final int count = (Tails*Jars*Packages);
+        final String[] sealed = new String[count];
+        final String[] deep = new String[count];
+        StringBuilder sub = new StringBuilder();
+        for (int d = 0; d < Depth; d++){
+            sub.append(".d").append(d);
+        }
+        for (int t = 0, x = 0; t < Tails; t++){
+            for (int j = 0; j < Jars; j++){
+                for (int p = 0; p < Packages; p++, x++){
+                    sealed[x] = Classpath.Package(t,j,p);
+                    deep[x] = sealed[x]+sub;
+                }
+            }
+        }
+        Shuffle(random,sealed);
+        Shuffle(random,deep);
+        final String[] miss = new String[]{"bench.none","bench.t0.none.d0","org.example.none.d0.d1"};
+
+        final Class<?>[] classes = new Class<?>[Math.min(4096,count)];
+        for (int x = 0; x < classes.length; x++){
+            classes[x] = loader.loadClass(sealed[x]+".C");
+        }
+
+        final Map<String,Package> store = new HashMap<>();
+        for (Package p : Package.getPackages()){
+            store.put(p.name,p);
+        }
+
+        Measure.Run(out,"getPackage(String) sealed",(ix) -> Package.getPackage(sealed[Index(ix,count)]).hashCode);
+        Measure.Run(out,"parent walk sealed",(ix) -> ParentWalk(store,sealed[Index(ix,count)]).hashCode);
+        Measure.Run(out,"getPackage(String) depth "+Depth,(ix) -> Package.getPackage(deep[Index(ix,count)]).hashCode);
+        Measure.Run(out,"parent walk depth "+Depth,(ix) -> ParentWalk(store,deep[Index(ix,count)]).hashCode);
+        Measure.Run(out,"getPackage(String) miss",(ix) -> (null == Package.getPackage(miss[Index(ix,miss.length)]))?0:1);
+        Measure.Run(out,"parent walk miss",(ix) -> (null == ParentWalk(store,miss[Index(ix,miss.length)]))?0:1);
+        Measure.Run(out,"getPackage(Class)",(ix) -> Package.getPackage(classes[Index(ix,classes.length)]).hashCode);
+        Measure.Run(out,"getPackages()",(ix) -> Package.getPackages().length);
+    }
+    static void Chain(PrintStream out, Classpath cp)
+        throws Exception
+    {
+        ClassLoader system = ClassLoader.getSystemClassLoader();
+        ClassLoader[] tails = new ClassLoader[Tails];
+        for (int t = 0; t < Tails; t++){
+            tails[t] = cp.loader(t,system);
+            Package.Init(tails[t],Parallel);
+        }
+        final ClassLoader link = Package.InitClassLoader();
+        out.printf("# %s%n",link);
+
+        final int count = (Jars*Packages);
+        final String[] first = new String[count];
+        final String[] last = new String[count];
+        final String[] resources = new String[count];
+        for (int j = 0, x = 0; j < Jars; j++){
+            for (int p = 0; p < Packages; p++, x++){
+                first[x] = Classpath.Package(0,j,p)+".C";
+                last[x] = Classpath.Package(Tails-1,j,p)+".C";
+                resources[x] = Classpath.Package(Tails-1,j,p).replace('.','/')+"/r.txt";
+            }
+        }
+        final Random random = new Random(7);
+        Shuffle(random,first);
+        Shuffle(random,last);
+        Shuffle(random,resources);
+
+        Measure.Run(out,"loadClass first tail",(ix) -> link.loadClass(first[Index(ix,count)]).hashCode());
+        Measure.Run(out,"loadClass last tail",(ix) -> link.loadClass(last[Index(ix,count)]).hashCode());
+        Measure.Run(out,"loadClass miss",(ix) -> {
+                try {
+                    return link.loadClass("bench.none.C"+Index(ix,64)).hashCode();
+                }
+                catch (ClassNotFoundException cnfx){
+                    return 0;
+                }
+            });
+        Measure.Run(out,"getResource last tail",(ix) -> link.getResource(resources[Index(ix,count)]).hashCode());
+        Measure.Run(out,"getResources MANIFEST.MF",(ix) -> {
+                int n = 0;
+                Enumeration<URL> enu = link.getResources("META-INF/MANIFEST.MF");
+                while (enu.hasMoreElements()){
+                    enu.nextElement();
+                    n += 1;
+                }
+                return n;
+            });
+
+        for (int threads = 1; threads <= Threads; threads *= 2){
+            Measure.Run(out,"loadClass last tail",threads,(ix) -> link.loadClass(last[Index(ix,count)]).hashCode());
+        }
+    }
+    static void Footprint(PrintStream out, Classpath cp)
+        throws Exception
+    {
+        ClassLoader loader = cp.loader(ClassLoader.getSystemClassLoader());
+        long before = Measure.Heap();
+
+        Package.Init(loader,Parallel);
+
+        long after = Measure.Heap();
+        int count = Package.getPackages().length;
+        out.printf("%-40s %10d KiB  %8.1f B/package  (%d packages)%n","Footprint",(after-before)/1024,((double)(after-before))/count,count);
+    }
+
+    /**
+     * Baseline for the package name tree: the lookup loop it
+     * replaced, which probes the store with each parent name.
+     */
+    static Package ParentWalk(Map<String,Package> store, String name){
+        while (true){
+            Package p = store.get(name);
+            if (null != p)
+                return p;
+            else {
+                int pxl = name.lastIndexOf('.');
+                if (0 < pxl)
+                    name = name.substring(0,pxl);
+                else
+                    return null;
+            }
+        }
+    }
+    private static int Index(int ix, int count){
+        return ((ix & 0x7FFFFFFF) % count);
+    }
+    private static void Shuffle(Random random, Object[] list){
+        for (int x = (list.length-1); 0 < x; x--){
+            int y = random.nextInt(x+1);
+            Object o = list[x];
+            list[x] = list[y];
+            list[y] = o;
+        }
+    }
+}
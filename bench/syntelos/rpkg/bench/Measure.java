@@ -0,0 +1,160 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg.bench;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Time and allocation measurement of an operation, by batches of
+ * operations after a warm up period.
+ */
+public final class Measure
+    extends Object
+{
+    /**
+     * Operation under measurement.  The result is consumed to defeat
+     * dead code elimination.
+     */
+    public interface Op
+    {
+        long run(int ix) throws Exception;
+    }
+
+    private final static int BATCH = 1024;
+
+    public static volatile long Sink;
+
+    public static long Warmup = 1000L;
+
+    public static long Time = 2000L;
+
+
+    /**
+     * Single threaded throughput, latency and allocation.
+     */
+    public static void Run(PrintStream out, String name, Op op)
+        throws Exception
+    {
+        final com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        final long tid = Thread.currentThread().getId();
+        long sink = 0L;
+        int ix = 0;
+        /*
+         * Warm up
+         */
+        long end = System.currentTimeMillis()+Warmup;
+        while (System.currentTimeMillis() < end){
+            for (int cc = 0; cc < BATCH; cc++){
+                sink += op.run(ix++);
+            }
+        }
+        /*
+         * Measure
+         */
+        long[] batches = new long[1024];
+        int count = 0;
+        long alloc = mx.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        end = start+(Time*1000000L);
+        long t0 = start, t1 = start;
+        while (t1 < end){
+            for (int cc = 0; cc < BATCH; cc++){
+                sink += op.run(ix++);
+            }
+            t1 = System.nanoTime();
+            if (count == batches.length){
+                batches = Arrays.copyOf(batches,count*2);
+            }
+            batches[count++] = (t1 - t0);
+            t0 = t1;
+        }
+        alloc = (mx.getThreadAllocatedBytes(tid) - alloc);
+        Sink += sink;
+
+        final long ops = ((long)count*BATCH);
+        final double nanos = (t1 - start);
+        Arrays.sort(batches,0,count);
+        out.printf("%-40s %14.0f ops/s %10.1f ns/op  p50 %8.1f  p99 %8.1f ns/op %10.1f B/op%n",
+                   name,
+                   (ops*1e9)/nanos,
+                   nanos/ops,
+                   ((double)batches[count/2])/BATCH,
+                   ((double)batches[Math.min(count-1,(int)(count*0.99))])/BATCH,
+                   ((double)alloc)/ops);
+    }
+    /**
+     * Aggregate throughput of threads running an operation
+     * concurrently.
+     */
+    public static void Run(PrintStream out, String name, final int threads, final Op op)
+        throws Exception
+    {
+        final long[] counts = new long[threads];
+        final Thread[] list = new Thread[threads];
+        final long warm = System.currentTimeMillis()+Warmup;
+        final long end = warm+Time;
+        for (int tc = 0; tc < threads; tc++){
+            final int tx = tc;
+            list[tc] = new Thread(() -> {
+                    long sink = 0L, count = 0L;
+                    int ix = (tx * 7919);
+                    try {
+                        while (System.currentTimeMillis() < warm){
+                            sink += op.run(ix++);
+                        }
+                        long now;
+                        while ((now = System.currentTimeMillis()) < end){
+                            for (int cc = 0; cc < BATCH; cc++){
+                                sink += op.run(ix++);
+                            }
+                            count += BATCH;
+                        }
+                    }
+                    catch (Exception exc){
+                        exc.printStackTrace();
+                    }
+                    counts[tx] = count;
+                    Sink += sink;
+            });
+            list[tc].start();
+        }
+        long total = 0L;
+        for (int tc = 0; tc < threads; tc++){
+            list[tc].join();
+            total += counts[tc];
+        }
+        out.printf("%-40s %14.0f ops/s  (%d threads)%n",name,(total*1000.0)/Time,threads);
+    }
+    /**
+     * @return Heap in use after collection
+     */
+    public static long Heap(){
+        Runtime rt = Runtime.getRuntime();
+        for (int cc = 0; cc < 4; cc++){
+            System.gc();
+            try {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException inx){
+            }
+        }
+        return (rt.totalMemory() - rt.freeMemory());
+    }
+}
@@ -19,20 +19,43 @@ package syntelos.rpkg;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * A chain link to merge disjoint tails.
  * 
  * When {@link Package} (initialization) is unable to resolve disjoint
- * tails, it merges them using an instance of this class.
+ * tails, it merges them using an instance of this class.  The link
+ * holds its member tails in a flat, ordered array without duplicates,
+ * and folds the members of links given to its constructor, so that
+ * delegation is linear in the number of members however the tails
+ * were merged.
+ * 
+ * The link derived by {@link Package#InitClassLoader()} holds its
+ * members weakly, and skips members that have been collected.
  */
 public class ChainClassLoaderLink
     extends ClassLoader
 {
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
 
+    /**
+     * The first member, or the nearest ancestor shared by the members
+     * of a link holding its members weakly
+     */
     public final ClassLoader parent;
-    public final ClassLoader child;
+
+    private final Member[] members;
+
+    private final Misses misses = new Misses(MISSES);
+
+    private volatile Indexes index;
 
 
     /**
@@ -42,89 +65,510 @@ public class ChainClassLoaderLink
      * @param child Another class loader
      */
     public ChainClassLoaderLink(ClassLoader parent, ClassLoader child){
-        super(parent);
-        if (null != parent && null != child){
-            this.parent = parent;
-            this.child = child;
-        }
-        else {
-            throw new IllegalArgumentException();
+        this(new ClassLoader[]{parent,child});
+    }
+    /**
+     * A chain link to merge disjoint tails.
+     * 
+     * @param members Class loaders in delegation order.  The members
+     * of links are folded in their place, and repeated members are
+     * dropped.
+     */
+    public ChainClassLoaderLink(ClassLoader... members){
+        this(Fold(members),false);
+    }
+    private ChainClassLoaderLink(List<ClassLoader> members, boolean weak){
+        super((weak)?(Shared(members)):(members.get(0)));
+        this.members = new Member[members.size()];
+        for (int cc = 0; cc < this.members.length; cc++){
+            this.members[cc] = new Member(members.get(cc),weak);
         }
+        this.parent = (weak)?(this.getParent()):(members.get(0));
+    }
+    /**
+     * @param members Disjoint class loader chain terminals
+     * 
+     * @return A link holding its members weakly
+     */
+    static ChainClassLoaderLink Weak(List<ClassLoader> members){
+
+        return new ChainClassLoaderLink(Fold(members.toArray(new ClassLoader[members.size()])),true);
     }
 
 
+    /**
+     * @return Member class loaders in delegation order, excepting
+     * collected members
+     */
+    public ClassLoader[] members(){
+        List<ClassLoader> list = new ArrayList<>(this.members.length);
+        for (Member member : this.members){
+            ClassLoader loader = member.get();
+            if (null != loader){
+                list.add(loader);
+            }
+        }
+        return list.toArray(new ClassLoader[list.size()]);
+    }
+    /**
+     * @return One or more members have been collected
+     */
+    boolean collected(){
+        for (Member member : this.members){
+            if (null == member.get()){
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * The link defines no classes, and holds none: classes are
+     * resolved by the members, whose own caches answer repeated
+     * names.  Concurrent loads proceed in parallel.
+     */
     @Override
     public Class<?> loadClass(String name) throws ClassNotFoundException {
-        try {
-            return this.parent.loadClass(name);
+
+        return this.delegate(name);
+    }
+    /**
+     * Classes in sealed packages are loaded from the member that owns
+     * the package.  Otherwise, the members are tried in order,
+     * excepting members that recently missed the name.
+     */
+    private Class<?> delegate(String name) throws ClassNotFoundException {
+        final Member[] members = this.members;
+        int routed = -1;
+
+        Package p = Package.ClassPackage(name);
+        ClassLoader owner = (null != p)?(p.getLoader()):(null);
+        if (null != owner){
+            for (int cc = 0; cc < members.length; cc++){
+                ClassLoader member = members[cc].get();
+                if (null != member && Owns(member,owner)){
+                    Metrics.Instance.chainRouted.increment();
+                    try {
+                        return member.loadClass(name);
+                    }
+                    catch (ClassNotFoundException cnfx){
+                        Metrics.Instance.chainExceptions.increment();
+
+                        routed = cc;
+                        break;
+                    }
+                }
+            }
         }
-        catch (ClassNotFoundException cnfx){
 
-            return this.child.loadClass(name);
+        final long missed = this.misses.get(name);
+        ClassNotFoundException notfound = null;
+        for (int cc = 0; cc < members.length; cc++){
+            ClassLoader member = members[cc].get();
+            if (null != member && cc != routed && (!Misses.Contains(missed,cc))){
+                if (0 < cc){
+                    Metrics.Instance.chainClassFallThrough.increment();
+                }
+                try {
+                    return member.loadClass(name);
+                }
+                catch (ClassNotFoundException cnfx){
+                    Metrics.Instance.chainExceptions.increment();
+
+                    this.misses.add(name,cc);
+
+                    notfound = cnfx;
+                }
+            }
         }
+        if (null != notfound)
+            throw notfound;
+        else
+            throw new ClassNotFoundException(name);
     }
+    /**
+     * The members are consulted in order, excepting members whose
+     * {@link ResourceIndex} excludes the resource.
+     */
     @Override
     public URL getResource(String name){
-        URL re = this.parent.getResource(name);
-        if (null == re){
-            re = this.child.getResource(name);
+        final Member[] members = this.members;
+        final ResourceIndex[] index = this.index();
+        boolean consulted = false;
+        for (int cc = 0; cc < members.length; cc++){
+            ClassLoader member = members[cc].get();
+            if (null != member && (null == index[cc] || index[cc].contains(name))){
+                if (consulted){
+                    Metrics.Instance.chainResourceFallThrough.increment();
+                }
+                URL re = member.getResource(name);
+                if (null != re){
+                    return re;
+                }
+                consulted = true;
+            }
         }
-        return re;
+        if (consulted)
+            return null;
+        else
+            return super.getResource(name);
     }
+    /**
+     * The resources of the members, in order and without repeated
+     * URLs.  Each member is not consulted until the resources of the
+     * members before it are exhausted.
+     */
     @Override
-    public Enumeration<URL> getResources(String name) throws IOException {
-        Enumeration<URL> a = this.parent.getResources(name);
-        Enumeration<URL> b = this.child.getResources(name);
-        if (null == a || (!a.hasMoreElements()))
-            return b;
-        else if (null == b || (!b.hasMoreElements()))
-            return a;
+    public Enumeration<URL> getResources(final String name) throws IOException {
+        final Member[] members = this.members;
+        final ResourceIndex[] index = this.index();
+        List<ClassLoader> list = new ArrayList<>(members.length);
+        for (int cc = 0; cc < members.length; cc++){
+            ClassLoader member = members[cc].get();
+            if (null != member && (null == index[cc] || index[cc].contains(name))){
+                list.add(member);
+            }
+        }
+        if (list.isEmpty())
+            return super.getResources(name);
         else
-            return new CombineEnumeration(a,b);
+            return new MemberEnumeration(list,name);
     }
+    /**
+     * A member index covers the part of its chain from the member to
+     * the ancestors shared by every member.  The shared ancestors
+     * are consulted by each member.  When every member excludes a
+     * resource, the shared ancestors are consulted through the
+     * parent.
+     * 
+     * The indexes are checked when the package store changes, and
+     * otherwise after {@link #INDEX_TIME}, and a member index is
+     * built again when its class paths or archives have changed.
+     */
+    private ResourceIndex[] index(){
+        final int generation = Package.Generation();
+        final long now = System.nanoTime();
+        Indexes index = this.index;
+        if (null == index){
+            final Member[] members = this.members;
+            Set<ClassLoader> shared = null;
+            for (Member member : members){
+                ClassLoader loader = member.get();
+                if (null == loader)
+                    continue;
+                else if (null == shared)
+                    shared = Ancestors(loader);
+                else
+                    shared.retainAll(Ancestors(loader));
+            }
+            if (null == shared){
+                shared = new java.util.HashSet<>();
+            }
+            ResourceIndex[] list = new ResourceIndex[members.length];
+            for (int cc = 0; cc < members.length; cc++){
+                ClassLoader loader = members[cc].get();
+                if (null != loader){
+                    list[cc] = ResourceIndex.Of(loader,shared);
+                }
+            }
+            index = new Indexes(shared,list,generation,now);
+            this.index = index;
+        }
+        else if (generation != index.generation || INDEX_TIME < (now-index.checked)){
+            final Member[] members = this.members;
+            ResourceIndex[] list = index.list.clone();
+            for (int cc = 0; cc < members.length; cc++){
+                ClassLoader loader = members[cc].get();
+                if (null != loader && (null == list[cc] || (!list[cc].current()))){
 
-
+                    list[cc] = ResourceIndex.Of(loader,index.shared);
+                }
+            }
+            index = new Indexes(index.shared,list,generation,now);
+            this.index = index;
+        }
+        return index.list;
+    }
+    /**
+     * @return Members of the argument links folded in their place,
+     * without repeated members
+     */
+    private static List<ClassLoader> Fold(ClassLoader[] members){
+        List<ClassLoader> list = new ArrayList<>();
+        if (null != members){
+            for (ClassLoader member : members){
+                if (null == member)
+                    throw new IllegalArgumentException();
+                else if (member instanceof ChainClassLoaderLink){
+                    for (ClassLoader folded : ((ChainClassLoaderLink)member).members()){
+                        if (!list.contains(folded)){
+                            list.add(folded);
+                        }
+                    }
+                }
+                else if (!list.contains(member)){
+                    list.add(member);
+                }
+            }
+        }
+        if (list.isEmpty())
+            throw new IllegalArgumentException();
+        else
+            return list;
+    }
     /**
+     * @return The nearest ancestor shared by the members, or null for
+     * the bootstrap class loader
+     */
+    private static ClassLoader Shared(List<ClassLoader> members){
+        Set<ClassLoader> shared = Ancestors(members.get(0));
+        for (int cc = 1, count = members.size(); cc < count; cc++){
+            shared.retainAll(Ancestors(members.get(cc)));
+        }
+        for (ClassLoader p = members.get(0).getParent(); null != p; p = p.getParent()){
+            if (shared.contains(p)){
+                return p;
+            }
+        }
+        return null;
+    }
+    /**
+     * @return The class loader and its ancestors
+     */
+    private static Set<ClassLoader> Ancestors(ClassLoader loader){
+        Set<ClassLoader> set = new java.util.HashSet<>();
+        for (ClassLoader p = loader; null != p; p = p.getParent()){
+            set.add(p);
+        }
+        return set;
+    }
+    /**
+     * @param side A class loader chain terminal
      * 
+     * @param owner A package owner
+     * 
+     * @return The owner is the side, or one of its ancestors
      */
-    static class CombineEnumeration<E>
-        implements Enumeration<E>
-    {
+    private static boolean Owns(ClassLoader side, ClassLoader owner){
 
-        public final Enumeration<E> a, b;
+        return (owner == side || ClassLoaderIndex.IsAncestor(owner,side));
+    }
 
-        private boolean usingA = true;
+    /**
+     * A member held weakly, or strongly
+     */
+    private final static class Member
+        extends java.lang.ref.WeakReference<ClassLoader>
+    {
+        private final ClassLoader strong;
 
+        Member(ClassLoader loader, boolean weak){
+            super(loader);
+            this.strong = (weak)?(null):(loader);
+        }
+    }
+    /**
+     * Nanoseconds between checks of the member indexes.
+     */
+    private final static long INDEX_TIME = 1000000000L;
 
-        CombineEnumeration(Enumeration<E> a, Enumeration<E> b){
+    /**
+     * Member resource indexes, and their ancestors and check time
+     */
+    private final static class Indexes
+        extends Object
+    {
+        final Set<ClassLoader> shared;
+        final ResourceIndex[] list;
+        final int generation;
+        final long checked;
+
+        Indexes(Set<ClassLoader> shared, ResourceIndex[] list, int generation, long checked){
             super();
-            if (null != a && null != b){
-                this.a = a;
-                this.b = b;
+            this.shared = shared;
+            this.list = list;
+            this.generation = generation;
+            this.checked = checked;
+        }
+    }
+    /**
+     * Bound on the number of names in the miss cache.
+     */
+    private final static int MISSES = 1024;
+    /**
+     * Nanoseconds a miss is retained, as a member may gain a class
+     * by other means than a change to the package store.
+     */
+    private final static long MISS_TIME = 1000000000L;
+
+    /**
+     * Bounded concurrent map of class names to the set of members
+     * missing them.  Members after the 64th are not recorded.  A miss
+     * is dropped when the package store changes, and after {@link
+     * #MISS_TIME}.  When the bound is exceeded, one thread sweeps the
+     * dropped misses, and then arbitrary misses, so that the bound is
+     * approximate.  Lookups take no lock.
+     */
+    static class Misses
+        extends Object
+    {
+        static boolean Contains(long set, int member){
+            return (64 > member && 0L != (set & (1L << member)));
+        }
+
+        /**
+         * Members missing a name, the time of the first miss, and the
+         * package store generation of the first miss
+         */
+        private final static class Miss
+            extends Object
+        {
+            final long time, set;
+            final int generation;
+
+            Miss(long time, long set, int generation){
+                super();
+                this.time = time;
+                this.set = set;
+                this.generation = generation;
+            }
+
+            boolean valid(long now, int generation){
+                return (generation == this.generation && MISS_TIME >= (now-this.time));
             }
+        }
+
+        private final int bound;
+
+        private final java.util.concurrent.ConcurrentHashMap<String,Miss> map;
+
+        private final java.util.concurrent.atomic.AtomicBoolean sweeping = new java.util.concurrent.atomic.AtomicBoolean();
+
+
+        Misses(int bound){
+            super();
+            this.bound = bound;
+            this.map = new java.util.concurrent.ConcurrentHashMap<>();
+        }
+
+
+        /**
+         * @return Set of members missing the name
+         */
+        long get(String name){
+            Miss miss = this.map.get(name);
+            if (null == miss)
+                return 0L;
+            else if (miss.valid(System.nanoTime(),Package.Generation()))
+                return miss.set;
             else {
-                throw new IllegalArgumentException();
+                this.map.remove(name,miss);
+                return 0L;
             }
         }
+        void add(String name, int member){
+            if (64 > member){
+                final long now = System.nanoTime();
+                final int generation = Package.Generation();
+                final long bit = (1L << member);
+                this.map.compute(name,(k,miss) -> {
+                        if (null != miss && miss.valid(now,generation))
+                            return new Miss(miss.time,(miss.set | bit),generation);
+                        else
+                            return new Miss(now,bit,generation);
+                    });
+
+                if (this.bound < this.map.size()){
+
+                    this.sweep(now,generation);
+                }
+            }
+        }
+        /**
+         * Drop invalid misses, and then arbitrary misses, to three
+         * quarters of the bound.
+         */
+        private void sweep(long now, int generation){
+            if (this.sweeping.compareAndSet(false,true)){
+                try {
+                    this.map.values().removeIf(miss -> (!miss.valid(now,generation)));
+
+                    final int target = ((this.bound*3)/4);
+                    java.util.Iterator<String> names = this.map.keySet().iterator();
+                    while (target < this.map.size() && names.hasNext()){
+                        names.next();
+                        names.remove();
+                    }
+                }
+                finally {
+                    this.sweeping.set(false);
+                }
+            }
+        }
+    }
+    /**
+     * Resources of a list of class loaders, opened on demand, without
+     * repeated URLs.
+     */
+    static class MemberEnumeration
+        extends Object
+        implements Enumeration<URL>
+    {
+        private final List<ClassLoader> members;
+
+        private final String name;
+
+        private final Set<String> seen = new java.util.HashSet<>();
+
+        private int member;
+
+        private Enumeration<URL> current;
+
+        private URL next;
+
+
+        MemberEnumeration(List<ClassLoader> members, String name){
+            super();
+            this.members = members;
+            this.name = name;
+        }
 
 
         public boolean hasMoreElements() {
-            if (this.usingA){
-                if (this.a.hasMoreElements()){
-                    return true;
+            while (null == this.next){
+                if (null != this.current && this.current.hasMoreElements()){
+                    URL url = this.current.nextElement();
+                    if (this.seen.add(url.toExternalForm())){
+                        this.next = url;
+                    }
+                }
+                else if (this.member < this.members.size()){
+                    try {
+                        this.current = this.members.get(this.member++).getResources(this.name);
+                    }
+                    catch (IOException iox){
+                        /*
+                         * Skip the member
+                         */
+                        Metrics.Instance.failed(null,iox);
+
+                        this.current = null;
+                    }
                 }
                 else {
-                    this.usingA = false;
+                    return false;
                 }
             }
-            return b.hasMoreElements();
+            return true;
         }
-        public E nextElement() {
-            if (this.usingA)
-                return this.a.nextElement();
-            else
-                return this.b.nextElement();
+        public URL nextElement() {
+            if (this.hasMoreElements()){
+                URL re = this.next;
+                this.next = null;
+                return re;
+            }
+            else {
+                throw new NoSuchElementException();
+            }
         }
     }
-
 }
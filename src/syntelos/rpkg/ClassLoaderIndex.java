@@ -0,0 +1,227 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.BitSet;
+
+/**
+ * Class loader topology index.  Each class loader seen is numbered,
+ * and recorded with its depth and the set of the numbers of its
+ * ancestors, so that the ancestor relation is answered in constant
+ * time after the chain of a class loader has been seen once.
+ * 
+ * The index is an immutable table of immutable nodes, replaced when
+ * a class loader is added, so that it is read without locking.
+ * 
+ * The class loaders are held weakly, and the number of a collected
+ * class loader is reused.  A number in the ancestor set of a live
+ * class loader is not reused, as a class loader holds its parent.
+ * 
+ * @see Package#UniqueClassLoader
+ * @see ChainClassLoaderLink
+ */
+final class ClassLoaderIndex
+    extends Object
+{
+    /**
+     * @param p Is parent of
+     * 
+     * @param c Is child of
+     * 
+     * @return 'p' is found in the parent chain of 'c'
+     */
+    static boolean IsAncestor(ClassLoader p, ClassLoader c){
+        if (null == p || null == c || p == c)
+            return false;
+        else {
+            Node nc = Find(c);
+            Node np = Find(p);
+            return (np.depth < nc.depth && nc.ancestors.get(np.id));
+        }
+    }
+    /**
+     * @return Number of class loaders indexed
+     */
+    static int Size(){
+        synchronized(Lock){
+            Expunge();
+            int size = 0;
+            for (Node node : Table){
+                if (null != node && null != node.get()){
+                    size += 1;
+                }
+            }
+            return size;
+        }
+    }
+    /**
+     * @return Number of class loader numbers assigned, bounding the
+     * size of the ancestor sets
+     */
+    static int Numbers(){
+        synchronized(Lock){
+            return Next;
+        }
+    }
+
+
+    /**
+     * Open addressing table by class loader identity, having at most
+     * half of its slots occupied.  Replaced, never modified.
+     */
+    private static volatile Node[] Table = new Node[16];
+    /**
+     * Serializes replacement of the table.
+     */
+    private final static Object Lock = new Object();
+
+    private final static ReferenceQueue<ClassLoader> Collected = new ReferenceQueue<>();
+
+    private final static BitSet Free = new BitSet();
+
+    private static int Next;
+
+
+    /**
+     * Find or create the node of a class loader, and its ancestors.
+     */
+    private static Node Find(ClassLoader loader){
+        Node node = Get(Table,loader);
+        if (null == node){
+            synchronized(Lock){
+                Expunge();
+
+                Node[] table = Table;
+                node = Get(table,loader);
+                if (null == node){
+                    /*
+                     * Walk to the first indexed ancestor, and index
+                     * the chain below it from the top down
+                     */
+                    java.util.ArrayDeque<ClassLoader> chain = new java.util.ArrayDeque<>();
+                    Node parent = null;
+                    for (ClassLoader p = loader; null != p; p = p.getParent()){
+                        parent = Get(table,p);
+                        if (null != parent)
+                            break;
+                        else
+                            chain.push(p);
+                    }
+                    java.util.List<Node> add = new java.util.ArrayList<>(chain.size());
+                    while (!chain.isEmpty()){
+                        ClassLoader p = chain.pop();
+                        node = new Node(p,Collected,Id(),parent);
+                        add.add(node);
+                        parent = node;
+                    }
+                    Table = Copy(table,add);
+                }
+            }
+        }
+        return node;
+    }
+    private static Node Get(Node[] table, ClassLoader loader){
+        final int mask = (table.length-1);
+        for (int ix = (System.identityHashCode(loader) & mask); ; ix = ((ix+1) & mask)){
+            Node node = table[ix];
+            if (null == node)
+                return null;
+            else if (loader == node.get())
+                return node;
+        }
+    }
+    /**
+     * @return Table of the live nodes of the argument table and the
+     * added nodes
+     */
+    private static Node[] Copy(Node[] table, java.util.List<Node> add){
+        java.util.List<Node> list = new java.util.ArrayList<>(add);
+        for (Node node : table){
+            if (null != node && null != node.get()){
+                list.add(node);
+            }
+        }
+        int size = 16;
+        while (size < (list.size() << 1)){
+            size <<= 1;
+        }
+        Node[] copy = new Node[size];
+        final int mask = (size-1);
+        for (Node node : list){
+            int ix = (node.hash & mask);
+            while (null != copy[ix]){
+                ix = ((ix+1) & mask);
+            }
+            copy[ix] = node;
+        }
+        return copy;
+    }
+    private static int Id(){
+        int id = Free.nextSetBit(0);
+        if (0 > id)
+            return Next++;
+        else {
+            Free.clear(id);
+            return id;
+        }
+    }
+    /**
+     * Free the numbers of collected class loaders.  Called under the
+     * lock.  A collected node remains in the table until it is
+     * replaced, and is never found.
+     */
+    private static void Expunge(){
+        Reference<? extends ClassLoader> ref;
+        while (null != (ref = Collected.poll())){
+
+            Free.set(((Node)ref).id);
+        }
+    }
+
+    /**
+     * Index record referring to its class loader weakly.
+     */
+    private final static class Node
+        extends WeakReference<ClassLoader>
+    {
+        final int id, depth, hash;
+        /**
+         * Numbers of the ancestors of the class loader
+         */
+        final BitSet ancestors;
+
+
+        Node(ClassLoader loader, ReferenceQueue<ClassLoader> queue, int id, Node parent){
+            super(loader,queue);
+            this.id = id;
+            this.hash = System.identityHashCode(loader);
+            if (null == parent){
+                this.depth = 0;
+                this.ancestors = new BitSet();
+            }
+            else {
+                this.depth = (parent.depth+1);
+                this.ancestors = (BitSet)parent.ancestors.clone();
+                this.ancestors.set(parent.id);
+            }
+        }
+    }
+}
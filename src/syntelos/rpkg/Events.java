@@ -0,0 +1,125 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder events of the package subsystem.  Each event has a
+ * threshold, and costs nothing more than its test when disabled.
+ * 
+ * <pre>
+ * syntelos.rpkg.Manifest   Archive manifest parsed by {@link Package#Init}
+ * syntelos.rpkg.Chain      Class loader chain terminal decision
+ * syntelos.rpkg.Lookup     Slow {@link Package#getPackage} lookup
+ * </pre>
+ */
+final class Events
+    extends Object
+{
+    /**
+     * An archive manifest parsed by initialization.
+     */
+    @Name("syntelos.rpkg.Manifest")
+    @Label("RPKG Manifest")
+    @Category({"Syntelos","RPKG"})
+    @Description("Archive manifest parsed by package initialization")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class Manifest
+        extends Event
+    {
+        @Label("URL")
+        String url;
+
+        @Label("Bytes")
+        @Description("Manifest size, or -1 when unknown")
+        @DataAmount
+        long bytes = -1L;
+
+        @Label("Entries")
+        @Description("Manifest sections")
+        int entries;
+
+        @Label("Sealed")
+        @Description("Sealed packages found")
+        int sealed;
+
+        @Label("Indexed")
+        @Description("Packages read from the archive package index")
+        boolean indexed;
+    }
+    /**
+     * A class loader chain terminal decision by initialization.
+     */
+    @Name("syntelos.rpkg.Chain")
+    @Label("RPKG Chain")
+    @Category({"Syntelos","RPKG"})
+    @Description("Class loader chain terminal pruned, accepted, added, or joined")
+    @Threshold("0 ms")
+    static class Chain
+        extends Event
+    {
+        final static String PRUNE = "prune";
+        final static String ACCEPT = "accept join";
+        final static String ADD = "add tail";
+        final static String CREATE = "create join";
+
+        @Label("Decision")
+        String decision;
+
+        @Label("Class Loader")
+        String loader;
+
+        @Label("Class Loader Type")
+        Class<?> loaderType;
+
+        @Label("Tails")
+        @Description("Chain terminals after the decision")
+        int tails;
+    }
+    /**
+     * A package lookup over the threshold.
+     */
+    @Name("syntelos.rpkg.Lookup")
+    @Label("RPKG Lookup")
+    @Category({"Syntelos","RPKG"})
+    @Description("Slow package lookup")
+    @Threshold("10 us")
+    static class Lookup
+        extends Event
+    {
+        @Label("Name")
+        String name;
+
+        @Label("Found")
+        boolean found;
+    }
+
+
+    private Events(){
+        super();
+    }
+}
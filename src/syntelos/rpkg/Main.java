@@ -17,8 +17,18 @@
  */
 package syntelos.rpkg;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
 
 /**
  * 
@@ -43,20 +53,127 @@ public final class Main
 	out.println();
 	out.println("Synopsis");
 	out.println();
-	out.println("    syntelos.rpkg.Main -list");
+	out.println("    syntelos.rpkg.Main [-prefix <name>] [-vendor <substring>] [-format manifest|json] -list");
 	out.println();
 	out.println("Description");
 	out.println();
-	out.println("    Dump package list.");
+	out.println("    Dump package list, optionally filtered by package name");
+	out.println("    prefix (the named package and the packages under it), or");
+	out.println("    by implementation or specification vendor.  Errors are");
+	out.println("    written to standard error.");
 	out.println();
 	out.println();
 	out.println("Synopsis");
 	out.println();
-	out.println("    syntelos.rpkg.Main -lookup <substring>");
+	out.println("    syntelos.rpkg.Main [-format manifest|json] [-limit N] -lookup <substring>");
 	out.println();
 	out.println("Description");
 	out.println();
-	out.println("    Print available package information.");
+	out.println("    Print the package having the longest prefix of the");
+	out.println("    package or class name, followed by the packages whose");
+	out.println("    names contain the substring, or whose name segments");
+	out.println("    start with the '.' separated segments of the substring,");
+	out.println("    in rank order (limit 10).");
+	out.println();
+	out.println();
+	out.println("Synopsis");
+	out.println();
+	out.println("    syntelos.rpkg.Main [-format manifest|json] -query <expr>");
+	out.println();
+	out.println("Description");
+	out.println();
+	out.println("    Print the packages matching every term of the query.");
+	out.println();
+	out.println("        query: term ('&' term)*");
+	out.println("        term:  prefix=<name>");
+	out.println("               vendor=<value>");
+	out.println("               title=<value>");
+	out.println("               spec.version(=|<|<=|>|>=)<version>");
+	out.println("               impl.version(=|<|<=|>|>=)<version>");
+	out.println();
+	out.println("    For example, 'vendor=Acme & impl.version<2.3'.  A value");
+	out.println("    containing '&' is quoted, as in 'vendor=\"Smith & Sons\"'.");
+	out.println();
+	out.println();
+	out.println("Synopsis");
+	out.println();
+	out.println("    syntelos.rpkg.Main [-format manifest|json] -batch [<file>|-]");
+	out.println();
+	out.println("Description");
+	out.println();
+	out.println("    Lookup each name read from a file, or from standard");
+	out.println("    input, one per line.  Blank lines and lines starting");
+	out.println("    with '#' are ignored.  Each result is preceded by a");
+	out.println("    'Lookup' line in manifest format.  In json format, each");
+	out.println("    result is one line, {\"lookup\":name,\"found\":true|false,");
+	out.println("    \"package\":{...}}, the package when found.  Exit status");
+	out.println("    is zero when every name is found.");
+	out.println();
+	out.println();
+	out.println("Formats");
+	out.println();
+	out.println("    manifest  JAR manifest sections separated by blank lines");
+	out.println("              (default).");
+	out.println();
+	out.println("    json      One JSON object per line.");
+	out.println();
+	out.println();
+	out.println("Synopsis");
+	out.println();
+	out.println("    syntelos.rpkg.Main -index <jar|classpath>+");
+	out.println();
+	out.println("Description");
+	out.println();
+	out.println("    Rewrite each jar file with a package index of its");
+	out.println("    manifest (META-INF/rpkg.idx), which init reads in place");
+	out.println("    of the manifest.  Arguments may be class path lists.");
+	out.println();
+	out.println();
+	out.println("Synopsis");
+	out.println();
+	out.println("    syntelos.rpkg.Main -server <socket>");
+	out.println();
+	out.println("Description");
+	out.println();
+	out.println("    Initialize once, and answer requests on a unix domain");
+	out.println("    socket until terminated.  Requests are lines, and");
+	out.println("    responses are lines terminated by a '.' line.");
+	out.println();
+	out.println("        ping");
+	out.println("        format manifest|json");
+	out.println("        lookup <name>       as -lookup");
+	out.println("        list [<prefix>]");
+	out.println("        query <expr>");
+	out.println();
+	out.println();
+	out.println("Synopsis");
+	out.println();
+	out.println("    syntelos.rpkg.Main -client <socket> [<request>]");
+	out.println();
+	out.println("Description");
+	out.println();
+	out.println("    Send the request, or each line of standard input, to a");
+	out.println("    server, and print the responses.  Exit status is zero");
+	out.println("    when no response is an error.");
+	out.println();
+	out.println();
+	out.println("Synopsis");
+	out.println();
+	out.println("    syntelos.rpkg.Main -cache");
+	out.println();
+	out.println("Description");
+	out.println();
+	out.println("    Print package cache file hits and misses.  The cache");
+	out.println("    file is named by system property 'syntelos.rpkg.cache'.");
+	out.println();
+	out.println();
+	out.println("Synopsis");
+	out.println();
+	out.println("    syntelos.rpkg.Main -metrics");
+	out.println();
+	out.println("Description");
+	out.println();
+	out.println("    Print package subsystem metrics.");
 	out.println();
     }
     /**
@@ -67,6 +184,17 @@ public final class Main
         unknown,
         list,
         lookup,
+        query,
+        batch,
+        prefix,
+        vendor,
+        limit,
+        format,
+        index,
+        server,
+        client,
+        cache,
+        metrics,
         help;
 
         public final static Opt recognize(String s){
@@ -96,6 +224,30 @@ public final class Main
 		    }
 		    else {
 			switch(s.charAt(0)){
+			case 'b':
+			    if ("batch".equals(s)){
+				return Opt.batch;
+			    }
+			    else {
+				return Opt.unknown;
+			    }
+			case 'c':
+			    if ("cache".equals(s)){
+				return Opt.cache;
+			    }
+			    else if ("client".equals(s)){
+				return Opt.client;
+			    }
+			    else {
+				return Opt.unknown;
+			    }
+			case 'f':
+			    if ("format".equals(s)){
+				return Opt.format;
+			    }
+			    else {
+				return Opt.unknown;
+			    }
 			case 'h':
 			    if ("help".equals(s)){
 				return Opt.help;
@@ -103,10 +255,55 @@ public final class Main
 			    else {
 				return Opt.unknown;
 			    }
+			case 'p':
+			    if ("prefix".equals(s)){
+				return Opt.prefix;
+			    }
+			    else {
+				return Opt.unknown;
+			    }
+			case 'q':
+			    if ("query".equals(s)){
+				return Opt.query;
+			    }
+			    else {
+				return Opt.unknown;
+			    }
+			case 's':
+			    if ("server".equals(s)){
+				return Opt.server;
+			    }
+			    else {
+				return Opt.unknown;
+			    }
+			case 'v':
+			    if ("vendor".equals(s)){
+				return Opt.vendor;
+			    }
+			    else {
+				return Opt.unknown;
+			    }
+			case 'm':
+			    if ("metrics".equals(s)){
+				return Opt.metrics;
+			    }
+			    else {
+				return Opt.unknown;
+			    }
+			case 'i':
+			    if ("index".equals(s)){
+				return Opt.index;
+			    }
+			    else {
+				return Opt.unknown;
+			    }
 			case 'l':
 			    if ("list".equals(s)){
 				return Opt.list;
 			    }
+			    else if ("limit".equals(s)){
+				return Opt.limit;
+			    }
 			    else if ("lookup".equals(s)){
 				return Opt.lookup;
 			    }
@@ -124,6 +321,112 @@ public final class Main
 	    }
         }
     }
+    /**
+     * Lookup the package having the longest prefix of a package or
+     * class name, followed by the packages found by name search in
+     * rank order.
+     * 
+     * @param limit Bound on the number of search results
+     * 
+     * @return Found one or more packages
+     */
+    public static boolean Search(PrintWriter out, String query, int limit, boolean json){
+        final Package first = Package.getPackage(query);
+        int count = 0;
+        if (null != first){
+            Print(out,first,json);
+            count += 1;
+        }
+        for (Package p : Package.search(query,limit)){
+            if (p != first && count < limit){
+                if (0 < count && (!json)){
+                    out.println();
+                }
+                Print(out,p,json);
+                count += 1;
+            }
+        }
+        return (0 < count);
+    }
+    /**
+     * @return Matched one or more packages
+     * 
+     * @throws java.lang.IllegalArgumentException Invalid expression
+     */
+    public static boolean Query(PrintWriter out, String expr, boolean json){
+        Package[] list = Package.query(expr);
+        for (int cc = 0; cc < list.length; cc++){
+            if (0 < cc && (!json)){
+                out.println();
+            }
+            Print(out,list[cc],json);
+        }
+        return (0 < list.length);
+    }
+    /**
+     * Lookup each name read from the input.
+     * 
+     * @return Found every package
+     */
+    public static boolean Batch(PrintWriter out, BufferedReader in, boolean json)
+        throws IOException
+    {
+        boolean re = true, once = true;
+        String line;
+        while (null != (line = in.readLine())){
+            String name = line.trim();
+            if (0 < name.length() && '#' != name.charAt(0)){
+
+                Package p = Package.getPackage(name);
+                if (json){
+                    out.append("{\"lookup\":");
+                    Package.Json(out,name);
+                    if (null != p){
+                        out.append(",\"found\":true,\"package\":");
+                        p.printJson(out);
+                    }
+                    else {
+                        out.append(",\"found\":false");
+                        re = false;
+                    }
+                    out.append('}');
+                    out.println();
+                }
+                else {
+                    if (once)
+                        once = false;
+                    else
+                        out.println();
+
+                    out.printf("Lookup: %s%n",name);
+                    if (null != p){
+                        p.println(out);
+                    }
+                    else {
+                        out.println("Found: false");
+                        re = false;
+                    }
+                }
+            }
+        }
+        return re;
+    }
+    private static void Print(PrintWriter out, Package p, boolean json){
+        if (json){
+            p.printJson(out);
+            out.println();
+        }
+        else {
+            p.println(out);
+        }
+    }
+    /**
+     * @return The argument is not an option
+     */
+    private static boolean Operand(String arg){
+
+        return (0 < arg.length() && '-' != arg.charAt(0));
+    }
     /**
      * 
      */
@@ -133,11 +436,18 @@ public final class Main
 
 	final PrintStream stdout = System.out;
 
+	final PrintStream stderr = System.err;
+
 	int argx = 0;
         String arg = null;
         Opt opt = null;
         try {
-            Package.Init(Main.class);
+            Opt action = null;
+            String operand = null;
+            String prefix = null;
+            String vendor = null;
+            boolean json = false;
+            int limit = 10;
 
             while (argx < argc){
                 arg = argv[argx++];
@@ -147,45 +457,189 @@ public final class Main
                      * LIST
                      */
                 case list:
-                    Package[] list = Package.getPackages();
-                    if (null != list){
-                        boolean once = true;
-                        for (Package p : list){
-                            if (once)
-                                once = false;
-                            else
-                                stdout.println();
-
-                            p.println(stdout);
+                    action = opt;
+                    break;
+                    /*
+                     * LOOKUP AND QUERY
+                     */
+                case lookup:
+                case query:
+                    if (argx < argc){
+                        action = opt;
+                        operand = argv[argx++];
+                    }
+                    else {
+                        stderr.printf("syntelos.rpkg.Main error, option '%s' requires argument.%n",arg);
+                        System.exit(1);
+                    }
+                    break;
+                    /*
+                     * BATCH
+                     */
+                case batch:
+                    action = opt;
+                    if (argx < argc && ("-".equals(argv[argx]) || Operand(argv[argx]))){
+                        operand = argv[argx++];
+                    }
+                    else {
+                        operand = "-";
+                    }
+                    break;
+                    /*
+                     * INDEX
+                     */
+                case index:
+                    if (argx < argc){
+                        boolean re = true;
+                        while (argx < argc && Operand(argv[argx])){
+                            for (String path : argv[argx++].split(File.pathSeparator)){
+                                File file = new File(path);
+                                if (file.isFile()){
+                                    try {
+                                        int count = PackageIndex.Write(file);
+                                        if (0 > count)
+                                            stdout.printf("%s: not indexed%n",file);
+                                        else
+                                            stdout.printf("%s: %d packages%n",file,count);
+                                    }
+                                    catch (IOException iox){
+                                        stderr.printf("syntelos.rpkg.Main error, index '%s': %s%n",file,iox);
+                                        re = false;
+                                    }
+                                }
+                            }
                         }
+                        System.exit(re?0:1);
+                    }
+                    else {
+                        stderr.printf("syntelos.rpkg.Main error, option '%s' requires argument.%n",arg);
+                        System.exit(1);
+                    }
+                    break;
+                    /*
+                     * SERVER
+                     */
+                case server:
+                    if (argx < argc){
+                        Package.Init(Main.class);
+
+                        final Server server = new Server(Paths.get(argv[argx++]));
+                        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                                    try {
+                                        server.close();
+                                    }
+                                    catch (IOException iox){
+                                    }
+                        }));
+                        server.run();
                         System.exit(0);
                     }
                     else {
-                        stdout.printf("syntelos.rpkg.Main error, package list empty.%n",arg);
+                        stderr.printf("syntelos.rpkg.Main error, option '%s' requires argument.%n",arg);
                         System.exit(1);
                     }
                     break;
                     /*
-                     * LOOKUP
+                     * CLIENT
                      */
-                case lookup:
+                case client:
                     if (argx < argc){
-                        arg = argv[argx++];
-                        Package p = Package.getPackage(arg);
-                        if (null != p){
-                            p.println(stdout);
-                            System.exit(0);
+                        Path path = Paths.get(argv[argx++]);
+                        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(stdout),0x10000),false);
+                        boolean re;
+                        if (argx < argc){
+                            StringBuilder request = new StringBuilder();
+                            while (argx < argc){
+                                if (0 < request.length()){
+                                    request.append(' ');
+                                }
+                                request.append(argv[argx++]);
+                            }
+                            re = Server.Request(path,Collections.singletonList(request.toString()),out);
                         }
                         else {
-                            stdout.printf("syntelos.rpkg.Main error, package '%s' not found.%n",arg);
+                            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+                            re = Server.Request(path,in.lines()::iterator,out);
+                        }
+                        out.flush();
+                        System.exit(re?0:1);
+                    }
+                    else {
+                        stderr.printf("syntelos.rpkg.Main error, option '%s' requires argument.%n",arg);
+                        System.exit(1);
+                    }
+                    break;
+                    /*
+                     * LIMIT
+                     */
+                case limit:
+                    if (argx < argc){
+                        try {
+                            limit = Integer.parseInt(argv[argx++]);
+                        }
+                        catch (NumberFormatException exc){
+                            stderr.printf("syntelos.rpkg.Main error, option '%s' requires number.%n",arg);
                             System.exit(1);
                         }
                     }
                     else {
-                        stdout.printf("syntelos.rpkg.Main error, option '%s' requires argument.%n",arg);
+                        stderr.printf("syntelos.rpkg.Main error, option '%s' requires argument.%n",arg);
+                        System.exit(1);
+                    }
+                    break;
+                    /*
+                     * FILTERS AND FORMAT
+                     */
+                case prefix:
+                case vendor:
+                case format:
+                    if (argx < argc){
+                        String value = argv[argx++];
+                        if (Opt.prefix == opt)
+                            prefix = value;
+                        else if (Opt.vendor == opt)
+                            vendor = value;
+                        else if ("json".equals(value))
+                            json = true;
+                        else if ("manifest".equals(value))
+                            json = false;
+                        else {
+                            stderr.printf("syntelos.rpkg.Main error, unrecognized format '%s'.%n",value);
+                            System.exit(1);
+                        }
+                    }
+                    else {
+                        stderr.printf("syntelos.rpkg.Main error, option '%s' requires argument.%n",arg);
+                        System.exit(1);
+                    }
+                    break;
+                    /*
+                     * CACHE
+                     */
+                case cache:
+                    Package.Init(Main.class);
+
+                    PackageCache cache = PackageCache.Instance;
+                    if (null != cache){
+                        stdout.printf("Cache: %s%n",cache.file);
+                        stdout.printf("Hits: %d%n",cache.hits());
+                        stdout.printf("Misses: %d%n",cache.misses());
+                        System.exit(0);
+                    }
+                    else {
+                        stderr.printf("syntelos.rpkg.Main error, package cache not enabled.%n");
                         System.exit(1);
                     }
                     break;
+                    /*
+                     * METRICS
+                     */
+                case metrics:
+                    Package.Init(Main.class);
+
+                    Metrics.Instance.snapshot().println(stdout);
+                    System.exit(0);
+                    break;
                     /*
                      * HELP
                      */
@@ -197,11 +651,59 @@ public final class Main
                      * ERROR
                      */
                 default:
-                    stdout.printf("syntelos.rpkg.Main error, unrecognized argument '%s'.%n",arg);
+                    stderr.printf("syntelos.rpkg.Main error, unrecognized argument '%s'.%n",arg);
                     System.exit(1);
                     break;
                 }
             }
+            if (null != action){
+                Package.Init(Main.class);
+
+                PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(stdout),0x10000),false);
+                boolean re;
+                switch(action){
+                case list:
+                    re = Package.List(out,prefix,vendor,json);
+                    if (!re){
+                        stderr.println("syntelos.rpkg.Main error, package list empty.");
+                    }
+                    break;
+                case lookup:
+                    re = Search(out,operand,limit,json);
+                    if (!re){
+                        stderr.printf("syntelos.rpkg.Main error, package '%s' not found.%n",operand);
+                    }
+                    break;
+                case query:
+                    try {
+                        re = Query(out,operand,json);
+                        if (!re){
+                            stderr.printf("syntelos.rpkg.Main error, no package matches '%s'.%n",operand);
+                        }
+                    }
+                    catch (IllegalArgumentException exc){
+                        stderr.printf("syntelos.rpkg.Main error, %s.%n",exc.getMessage());
+                        re = false;
+                    }
+                    break;
+                default:
+                    if ("-".equals(operand)){
+                        re = Batch(out,new BufferedReader(new InputStreamReader(System.in)),json);
+                    }
+                    else {
+                        BufferedReader in = new BufferedReader(new FileReader(operand));
+                        try {
+                            re = Batch(out,in,json);
+                        }
+                        finally {
+                            in.close();
+                        }
+                    }
+                    break;
+                }
+                out.flush();
+                System.exit(re?0:1);
+            }
             /*
              * Default invocation
              */
@@ -210,7 +712,7 @@ public final class Main
         }
         catch(Throwable t){
             while (null != t){
-                t.printStackTrace();
+                t.printStackTrace(stderr);
                 t = t.getCause();
             }
             System.exit(1);
@@ -0,0 +1,318 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Package subsystem counters.  Counters are {@link LongAdder}
+ * instances, so that recording on the lookup path is uncontended.
+ * 
+ * The metrics are available as a {@link #snapshot()}, and as the
+ * platform MBean {@link #NAME}.  The MBean is registered by {@link
+ * #Register()}, or by the system property "syntelos.rpkg.jmx".
+ * 
+ * @see MetricsMBean
+ */
+public final class Metrics
+    extends Object
+    implements MetricsMBean
+{
+    public final static String NAME = "syntelos.rpkg:type=Metrics";
+
+    public final static Metrics Instance = new Metrics();
+
+    static {
+        if (Boolean.getBoolean("syntelos.rpkg.jmx")){
+            Register();
+        }
+    }
+
+    /**
+     * Register {@link #Instance} with the platform MBean server.
+     * 
+     * @return Registered by this call
+     */
+    public static boolean Register(){
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(Instance,new ObjectName(NAME));
+            return true;
+        }
+        catch (InstanceAlreadyExistsException exc){
+            return false;
+        }
+        catch (JMException exc){
+            throw new IllegalStateException(NAME,exc);
+        }
+    }
+
+
+    final LongAdder initCount = new LongAdder();
+    final LongAdder initTime = new LongAdder();
+    final LongAdder manifestsRead = new LongAdder();
+    final LongAdder manifestsCached = new LongAdder();
+    final LongAdder manifestsSkipped = new LongAdder();
+    final LongAdder manifestsFailed = new LongAdder();
+    final LongAdder parseTime = new LongAdder();
+    final LongAdder lookupHits = new LongAdder();
+    final LongAdder lookupMisses = new LongAdder();
+    final LongAdder chainRouted = new LongAdder();
+    final LongAdder chainClassFallThrough = new LongAdder();
+    final LongAdder chainResourceFallThrough = new LongAdder();
+    final LongAdder chainExceptions = new LongAdder();
+
+    /**
+     * Bound on the number of manifests in {@link #getParseTimes()}.
+     */
+    private final static int PARSE_TIMES = 1024;
+    /**
+     * Most recently read manifests, in order of reading
+     */
+    private final Map<String,Long> parseTimes = new java.util.LinkedHashMap<>();
+
+    private volatile long initLastTime;
+
+    private volatile String lastFailure;
+
+
+    private Metrics(){
+        super();
+    }
+
+
+    /**
+     * @param time Duration of an initialization
+     */
+    void init(long time){
+        this.initCount.increment();
+        this.initTime.add(time);
+        this.initLastTime = time;
+    }
+    /**
+     * @param src Archive manifest reference
+     * @param time Duration of reading the manifest
+     * @param cached Packages found in the package cache
+     */
+    void parsed(URL src, long time, boolean cached){
+        if (cached)
+            this.manifestsCached.increment();
+        else
+            this.manifestsRead.increment();
+
+        this.parseTime.add(time);
+
+        synchronized(this.parseTimes){
+            String key = src.toExternalForm();
+            this.parseTimes.remove(key);
+            this.parseTimes.put(key,time);
+            if (PARSE_TIMES < this.parseTimes.size()){
+                java.util.Iterator<String> eldest = this.parseTimes.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+    /**
+     * @param srcs Manifest references of collected class loaders
+     */
+    void expunge(Collection<String> srcs){
+        synchronized(this.parseTimes){
+            this.parseTimes.keySet().removeAll(srcs);
+        }
+    }
+    /**
+     * @param src Archive manifest reference, or null
+     * @param exc Failure reading manifests
+     */
+    void failed(URL src, Exception exc){
+        this.manifestsFailed.increment();
+        if (null != src)
+            this.lastFailure = src.toExternalForm()+": "+exc;
+        else
+            this.lastFailure = exc.toString();
+    }
+    /**
+     * @param exc Failure other than reading manifests, as storing the
+     * package cache or notifying a listener
+     */
+    void failed(Exception exc){
+        this.lastFailure = exc.toString();
+    }
+    /**
+     * @param pkg Result of a package lookup
+     * @return The argument
+     */
+    Package lookup(Package pkg){
+        if (null != pkg)
+            this.lookupHits.increment();
+        else
+            this.lookupMisses.increment();
+
+        return pkg;
+    }
+
+    public long getInitCount(){
+        return this.initCount.sum();
+    }
+    public long getInitTime(){
+        return this.initTime.sum();
+    }
+    public long getInitLastTime(){
+        return this.initLastTime;
+    }
+    public long getManifestsRead(){
+        return this.manifestsRead.sum();
+    }
+    public long getManifestsCached(){
+        return this.manifestsCached.sum();
+    }
+    public long getManifestsSkipped(){
+        return this.manifestsSkipped.sum();
+    }
+    public long getManifestsFailed(){
+        return this.manifestsFailed.sum();
+    }
+    public long getParseTime(){
+        return this.parseTime.sum();
+    }
+    public Map<String,Long> getParseTimes(){
+        synchronized(this.parseTimes){
+            return new java.util.TreeMap<>(this.parseTimes);
+        }
+    }
+    public String getLastFailure(){
+        return this.lastFailure;
+    }
+    public int getStoreSize(){
+        return Package.Packages().length;
+    }
+    public long getLookupHits(){
+        return this.lookupHits.sum();
+    }
+    public long getLookupMisses(){
+        return this.lookupMisses.sum();
+    }
+    public long getChainRouted(){
+        return this.chainRouted.sum();
+    }
+    public long getChainClassFallThrough(){
+        return this.chainClassFallThrough.sum();
+    }
+    public long getChainResourceFallThrough(){
+        return this.chainResourceFallThrough.sum();
+    }
+    public long getChainExceptions(){
+        return this.chainExceptions.sum();
+    }
+    public void reset(){
+        this.initCount.reset();
+        this.initTime.reset();
+        this.manifestsRead.reset();
+        this.manifestsCached.reset();
+        this.manifestsSkipped.reset();
+        this.manifestsFailed.reset();
+        this.parseTime.reset();
+        this.lookupHits.reset();
+        this.lookupMisses.reset();
+        this.chainRouted.reset();
+        this.chainClassFallThrough.reset();
+        this.chainResourceFallThrough.reset();
+        this.chainExceptions.reset();
+        synchronized(this.parseTimes){
+            this.parseTimes.clear();
+        }
+        this.initLastTime = 0L;
+        this.lastFailure = null;
+    }
+    /**
+     * @return Values of the counters at this time
+     */
+    public Snapshot snapshot(){
+        return new Snapshot(this);
+    }
+
+    /**
+     * Values of the counters at one time.
+     */
+    public final static class Snapshot
+        extends Object
+    {
+        public final long initCount, initTime, initLastTime;
+        public final long manifestsRead, manifestsCached, manifestsSkipped, manifestsFailed;
+        public final long parseTime;
+        public final Map<String,Long> parseTimes;
+        public final String lastFailure;
+        public final int storeSize;
+        public final long lookupHits, lookupMisses;
+        public final long chainRouted, chainClassFallThrough, chainResourceFallThrough, chainExceptions;
+
+
+        Snapshot(Metrics m){
+            super();
+            this.initCount = m.getInitCount();
+            this.initTime = m.getInitTime();
+            this.initLastTime = m.getInitLastTime();
+            this.manifestsRead = m.getManifestsRead();
+            this.manifestsCached = m.getManifestsCached();
+            this.manifestsSkipped = m.getManifestsSkipped();
+            this.manifestsFailed = m.getManifestsFailed();
+            this.parseTime = m.getParseTime();
+            this.parseTimes = java.util.Collections.unmodifiableMap(m.getParseTimes());
+            this.lastFailure = m.getLastFailure();
+            this.storeSize = m.getStoreSize();
+            this.lookupHits = m.getLookupHits();
+            this.lookupMisses = m.getLookupMisses();
+            this.chainRouted = m.getChainRouted();
+            this.chainClassFallThrough = m.getChainClassFallThrough();
+            this.chainResourceFallThrough = m.getChainResourceFallThrough();
+            this.chainExceptions = m.getChainExceptions();
+        }
+
+
+        public void println(PrintStream out){
+            out.printf("Init-Count: %d%n",this.initCount);
+            out.printf("Init-Time: %.3f ms%n",(this.initTime/1e6));
+            out.printf("Init-Last-Time: %.3f ms%n",(this.initLastTime/1e6));
+            out.printf("Manifests-Read: %d%n",this.manifestsRead);
+            out.printf("Manifests-Cached: %d%n",this.manifestsCached);
+            out.printf("Manifests-Skipped: %d%n",this.manifestsSkipped);
+            out.printf("Manifests-Failed: %d%n",this.manifestsFailed);
+            out.printf("Parse-Time: %.3f ms%n",(this.parseTime/1e6));
+            if (null != this.lastFailure){
+                out.printf("Last-Failure: %s%n",this.lastFailure);
+            }
+            out.printf("Store-Size: %d%n",this.storeSize);
+            out.printf("Lookup-Hits: %d%n",this.lookupHits);
+            out.printf("Lookup-Misses: %d%n",this.lookupMisses);
+            out.printf("Chain-Routed: %d%n",this.chainRouted);
+            out.printf("Chain-Class-Fall-Through: %d%n",this.chainClassFallThrough);
+            out.printf("Chain-Resource-Fall-Through: %d%n",this.chainResourceFallThrough);
+            out.printf("Chain-Exceptions: %d%n",this.chainExceptions);
+        }
+    }
+}
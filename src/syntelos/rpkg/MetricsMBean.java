@@ -0,0 +1,102 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link Metrics}.  Times are in
+ * nanoseconds.
+ */
+public interface MetricsMBean {
+
+    /**
+     * @return Number of initializations that read a class loader
+     * chain
+     */
+    long getInitCount();
+    /**
+     * @return Total time in initialization
+     */
+    long getInitTime();
+    /**
+     * @return Time of the most recent initialization
+     */
+    long getInitLastTime();
+    /**
+     * @return Archive manifests parsed
+     */
+    long getManifestsRead();
+    /**
+     * @return Archive manifests found in the package cache
+     */
+    long getManifestsCached();
+    /**
+     * @return Archive manifest references read by a prior
+     * initialization
+     */
+    long getManifestsSkipped();
+    /**
+     * @return Archive manifest references that failed to read
+     */
+    long getManifestsFailed();
+    /**
+     * @return Total time reading archive manifests
+     */
+    long getParseTime();
+    /**
+     * @return Time reading each archive manifest, by reference
+     */
+    Map<String,Long> getParseTimes();
+    /**
+     * @return Most recent failure, or null
+     */
+    String getLastFailure();
+    /**
+     * @return Number of packages in the store
+     */
+    int getStoreSize();
+    /**
+     * @return Package lookups answered with a package
+     */
+    long getLookupHits();
+    /**
+     * @return Package lookups answered with null
+     */
+    long getLookupMisses();
+    /**
+     * @return Link class loads routed to the side owning the package
+     */
+    long getChainRouted();
+    /**
+     * @return Link class loads falling through to the child
+     */
+    long getChainClassFallThrough();
+    /**
+     * @return Link resource lookups falling through to the child
+     */
+    long getChainResourceFallThrough();
+    /**
+     * @return Class not found exceptions caught by links
+     */
+    long getChainExceptions();
+    /**
+     * Reset counters.
+     */
+    void reset();
+}
@@ -17,22 +17,46 @@
  */
 package syntelos.rpkg;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReference;
+import java.lang.module.ResolvedModule;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
 import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
 
 /**
  * Java package manager stores sealed packages found in the class
@@ -58,178 +82,1362 @@ public final class Package
      * @return Wrote content to output.
      */
     public static boolean List(PrintStream out){
-        Package[] list = Package.getPackages();
-        if (null != list){
-            boolean once = true;
-            for (Package p : list){
+        PrintWriter writer = new PrintWriter(out);
+        try {
+            return List(writer,null,null,false);
+        }
+        finally {
+            writer.flush();
+        }
+    }
+    /**
+     * @param out Target output
+     * 
+     * @param prefix Package name, listing the package and the
+     * packages under it, or null
+     * 
+     * @param vendor Implementation or specification vendor
+     * substring, or null
+     * 
+     * @param json One JSON object per line, otherwise manifest
+     * sections separated by blank lines
+     * 
+     * @return Wrote one or more packages
+     */
+    public static boolean List(PrintWriter out, String prefix, String vendor, boolean json){
+        if (null != prefix && prefix.endsWith(".")){
+            prefix = prefix.substring(0,prefix.length()-1);
+        }
+        final String under = (null != prefix)?(prefix+'.'):(null);
+        if (null != vendor){
+            vendor = vendor.toLowerCase();
+        }
+        boolean once = true;
+        for (Package p : Package.Packages()){
+            if ((null == prefix || p.name.equals(prefix) || p.name.startsWith(under)) &&
+                (null == vendor || p.vendor(vendor)))
+            {
                 if (once)
                     once = false;
-                else
+                else if (!json)
                     out.println();
 
-                p.println(out);
+                if (json){
+                    p.printJson(out);
+                    out.println();
+                }
+                else {
+                    p.println(out);
+                }
             }
-            return true;
         }
+        return (!once);
+    }
+
+    private final static Package[] PARY = new Package[0];
+
+    /**
+     * Immutable package store.  Each {@link #Init} publishes a
+     * replacement, so that lookups read a consistent store without
+     * locking.
+     */
+    private final static class Snapshot
+        extends Object
+    {
+        final int generation;
+        final Map<String,Package> map;
+        final Package[] list;
+        final PackageTrie trie;
+        /**
+         * Attribute indexes, built on the first query
+         */
+        private volatile PackageQuery query;
+        /**
+         * Name search index, built on the first search
+         */
+        private volatile PackageSearch search;
+
+        Snapshot(int generation, Map<String,Package> map){
+            super();
+            this.generation = generation;
+            this.map = map;
+            this.list = map.values().toArray(PARY);
+            this.trie = new PackageTrie(this.list);
+        }
+
+        PackageQuery query(){
+            PackageQuery query = this.query;
+            if (null == query){
+                query = new PackageQuery(this.list);
+                this.query = query;
+            }
+            return query;
+        }
+        PackageSearch search(){
+            PackageSearch search = this.search;
+            if (null == search){
+                search = new PackageSearch(this.list);
+                this.search = search;
+            }
+            return search;
+        }
+    }
+
+    private static volatile Snapshot Store = new Snapshot(0,Collections.emptyMap());
+
+    /**
+     * @return Generation of the package store, changed by each
+     * publication
+     */
+    static int Generation(){
+        return Package.Store.generation;
+    }
+
+    /**
+     * Class loader chain terminals, see {@link #UniqueClassLoader}.
+     */
+    private final static List<Reference<ClassLoader>> InitTails = new ArrayList<>();
+    /**
+     * Init class loader derived from {@link #InitTails}.
+     */
+    private static volatile Reference<ClassLoader> InitClassLoader = null;
+    /**
+     * Link over disjoint tails derived from {@link #InitTails}, held
+     * strongly as it holds its members weakly.
+     */
+    private static volatile ChainClassLoaderLink InitLink = null;
+
+    /**
+     * Serializes {@link #Init} and the publication of {@link #Store}.
+     */
+    private final static Object InitLock = new Object();
+
+    /**
+     * Default for {@link #Init(ClassLoader)}, from system property
+     * "syntelos.rpkg.parallel".
+     */
+    private final static boolean InitParallel = Boolean.getBoolean("syntelos.rpkg.parallel");
+    /**
+     * Bound on the parallel manifest reader pool, from system
+     * property "syntelos.rpkg.threads".
+     */
+    private final static int InitThreads = Integer.getInteger("syntelos.rpkg.threads",Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The required initialization needs to be called on the tail of
+     * the class loader chain.  Typically, the "main" class is loaded
+     * by the class loader that is the tail (or, "leaf") of the class
+     * loader "parent" chain.
+     * 
+     * The module layer of a class in a named module, other than the
+     * boot layer, is initialized first.
+     * 
+     * @throws java.lang.IllegalArgumentException For a class of the
+     * bootstrap class loader
+     */
+    public static void Init(Class c){
+        Module module = c.getModule();
+        ModuleLayer layer = module.getLayer();
+        if (module.isNamed() && null != layer && ModuleLayer.boot() != layer){
+
+            Init(layer);
+        }
+        Init(c.getClassLoader());
+    }
+    /**
+     * The required initialization needs to be called on the tail of
+     * the class loader chain.  
+     */
+    public static void Init(ClassLoader tail){
+        Init(tail,InitParallel);
+    }
+    /**
+     * The required initialization needs to be called on the tail of
+     * the class loader chain.
+     * 
+     * @param tail A class loader chain terminal
+     * 
+     * @param parallel Read manifests on a bounded pool of threads.
+     * The content of the package store is the same in either case:
+     * the first package on the class path wins.
+     * 
+     * @throws java.lang.IllegalArgumentException For the bootstrap
+     * class loader (null)
+     */
+    public static void Init(ClassLoader tail, boolean parallel){
+        if (null == tail){
+            throw new IllegalArgumentException("Bootstrap class loader");
+        }
+        synchronized(InitLock){
+
+            Expunge();
+
+            UniqueClassLoader(tail);
+
+            if (!InitOwners.containsKey(tail)){
+
+                final Metrics metrics = Metrics.Instance;
+                final long start = System.nanoTime();
+
+                Snapshot prev = Package.Store;
+                Map<String,Package> store = new java.util.LinkedHashMap<>(prev.map);
+
+                InitChain(tail,parallel,store);
+
+                Package.Store = new Snapshot(prev.generation+1,Collections.unmodifiableMap(store));
+
+                metrics.init(System.nanoTime()-start);
+            }
+        }
+
+        PackageCache cache = PackageCache.Instance;
+        if (null != cache){
+            try {
+                cache.store();
+            }
+            catch (IOException iox){
+                Metrics.Instance.failed(iox);
+            }
+        }
+    }
+    /**
+     * Initialize from the module descriptors of a module layer and
+     * its ancestor layers, excepting the boot layer.  Parent layers
+     * are read first, and the modules of a layer in name order.  The
+     * packages of each named module are defined by its descriptor,
+     * with its name as implementation title and its version as
+     * implementation version, so that neither archive manifests nor
+     * class loader resources are read.  Module packages are sealed,
+     * as a package is in one module of a layer.  The manifest of a module
+     * archive is not read by a later {@link #Init}.
+     * 
+     * The packages are merged into the store after the packages
+     * already found, and the first package of a name wins.
+     * 
+     * @param layer Module layer
+     */
+    public static void Init(ModuleLayer layer){
+        synchronized(InitLock){
+
+            Expunge();
+
+            final Metrics metrics = Metrics.Instance;
+            final long start = System.nanoTime();
+
+            Snapshot prev = Package.Store;
+            Map<String,Package> store = new java.util.LinkedHashMap<>(prev.map);
+
+            if (InitLayer(layer,new java.util.HashSet<>(),store)){
+
+                Package.Store = new Snapshot(prev.generation+1,Collections.unmodifiableMap(store));
+
+                metrics.init(System.nanoTime()-start);
+            }
+        }
+    }
+    /**
+     * Initialize from the module descriptors found by a module
+     * finder, as for {@link #Init(ModuleLayer)}, without defining a
+     * module layer.
+     * 
+     * @param finder Module finder, for example from {@link
+     * java.lang.module.ModuleFinder#of}
+     * 
+     * @param loader Class loader defining the modules
+     */
+    public static void Init(ModuleFinder finder, ClassLoader loader){
+        if (null == finder || null == loader)
+            throw new IllegalArgumentException();
         else {
+            synchronized(InitLock){
+
+                Expunge();
+
+                final Metrics metrics = Metrics.Instance;
+                final long start = System.nanoTime();
+
+                Snapshot prev = Package.Store;
+                Map<String,Package> store = new java.util.LinkedHashMap<>(prev.map);
+
+                Map<String,ModuleReference> modules = new java.util.TreeMap<>();
+                for (ModuleReference ref : finder.findAll()){
+                    modules.put(ref.descriptor().name(),ref);
+                }
+                boolean read = false;
+                for (ModuleReference ref : modules.values()){
+
+                    read |= InitModule(loader,ref,store);
+                }
+                if (read){
+
+                    Package.Store = new Snapshot(prev.generation+1,Collections.unmodifiableMap(store));
+
+                    metrics.init(System.nanoTime()-start);
+                }
+            }
+        }
+    }
+    /**
+     * @return Modules were read
+     */
+    private static boolean InitLayer(ModuleLayer layer, Set<ModuleLayer> visited, Map<String,Package> store){
+        if (null == layer || ModuleLayer.boot() == layer || (!visited.add(layer)))
             return false;
+        else {
+            boolean read = false;
+            for (ModuleLayer parent : layer.parents()){
+
+                read |= InitLayer(parent,visited,store);
+            }
+            Map<String,ResolvedModule> modules = new java.util.TreeMap<>();
+            for (ResolvedModule module : layer.configuration().modules()){
+                modules.put(module.name(),module);
+            }
+            for (ResolvedModule module : modules.values()){
+
+                read |= InitModule(layer.findLoader(module.name()),module.reference(),store);
+            }
+            return read;
         }
     }
+    /**
+     * Store the packages of a module descriptor.  A module is read
+     * once, and a module defined to the bootstrap class loader is
+     * not read.  The packages of a named module are sealed, as a
+     * package is in one module of a layer.
+     * 
+     * @param loader Class loader defining the module
+     * 
+     * @param ref Module reference
+     * 
+     * @param store Package store under construction
+     * 
+     * @return Module was read
+     */
+    private static boolean InitModule(ClassLoader loader, ModuleReference ref, Map<String,Package> store){
+        if (null != loader){
+            ModuleDescriptor desc = ref.descriptor();
+            URI location = ref.location().orElse(null);
+            URL src = InitModuleReference(desc,location);
+            String key = src.toExternalForm();
+            if (InitSeen.add(key)){
 
-    private final static Map<String,Package> Store = new java.util.HashMap();
+                Owner owner = InitModuleOwners.get(loader);
+                if (null == owner){
+                    owner = new Owner(loader);
+                    InitModuleOwners.put(loader,owner);
+                }
+                owner.urls.add(key);
+                /*
+                 * The archive manifest is described by the module
+                 * descriptor
+                 */
+                for (String mf : InitModuleManifest(location)){
+                    if (InitSeen.add(mf)){
+                        owner.urls.add(mf);
+                    }
+                }
 
-    private static ClassLoader InitClassLoader = null;
+                String title = desc.name();
+                String version = desc.rawVersion().orElse(null);
+                Set<String> names = new java.util.TreeSet<>(desc.packages());
+                Package[] list = new Package[names.size()];
+                int cc = 0;
+                for (String name : names){
+
+                    list[cc++] = new Package(owner,src,Name2Zip(name),null,null,null,title,version,null,true);
+                }
+                InitStore(store,src,list);
 
+                return true;
+            }
+            else {
+                Metrics.Instance.manifestsSkipped.increment();
+            }
+        }
+        return false;
+    }
+    /**
+     * @return Module location, or "jrt:/name" for a module without a
+     * location
+     */
+    private static URL InitModuleReference(ModuleDescriptor desc, URI location){
+        if (null != location){
+            try {
+                return location.toURL();
+            }
+            catch (MalformedURLException|IllegalArgumentException exc){
+            }
+        }
+        try {
+            return new URL("jrt:/"+desc.name());
+        }
+        catch (MalformedURLException exc){
+            throw new IllegalStateException(exc);
+        }
+    }
+    /**
+     * @return Manifest references of a module archive or directory,
+     * in the forms of the module location ("file:///") and of a
+     * class path ("file:/")
+     */
+    private static Set<String> InitModuleManifest(URI location){
+        Set<String> re = new java.util.HashSet<>();
+        if (null != location && "file".equals(location.getScheme())){
+            try {
+                File file = new File(location);
+                if (file.isDirectory()){
+                    re.add(location.resolve(JarFile.MANIFEST_NAME).toString());
+                    re.add(new File(file,JarFile.MANIFEST_NAME).toURI().toURL().toExternalForm());
+                }
+                else if (file.isFile()){
+                    re.add("jar:"+location+"!/"+JarFile.MANIFEST_NAME);
+                    re.add("jar:"+file.toURI().toURL().toExternalForm()+"!/"+JarFile.MANIFEST_NAME);
+                }
+            }
+            catch (MalformedURLException|IllegalArgumentException exc){
+            }
+        }
+        return re;
+    }
+    /**
+     * Weak reference to a package class loader, shared by its
+     * packages.  When the class loader is collected, its packages and
+     * manifest references are removed by {@link #Expunge}.
+     */
+    final static class Owner
+        extends WeakReference<ClassLoader>
+    {
+        /**
+         * Manifest references read for the class loader
+         */
+        final Set<String> urls = new java.util.HashSet<>();
+        /**
+         * Manifest references found by the class loader and read for
+         * another, in class path order, for {@link #Expunge}
+         */
+        final List<URL> skipped = new ArrayList<>();
+
+        /**
+         * Called under the init lock.
+         */
+        Owner(ClassLoader loader){
+            super(loader,Owners);
+            if (null == Expunger){
+                Thread t = new Thread(Package::ExpungeRun,"syntelos.rpkg.Expunge");
+                t.setDaemon(true);
+                t.start();
+                Expunger = t;
+            }
+        }
+    }
+    private final static ReferenceQueue<ClassLoader> Owners = new ReferenceQueue<>();
+    /**
+     * Expunges collected class loaders off the lookup path, started
+     * with the first owner.
+     */
+    private static Thread Expunger = null;
+    /**
+     * Class loaders that have been initialized.
+     */
+    private final static Map<ClassLoader,Owner> InitOwners = new java.util.WeakHashMap<>();
+    /**
+     * Class loaders of modules read by {@link #Init(ModuleLayer)}
+     * and {@link #Init(ModuleFinder,ClassLoader)}.
+     */
+    private final static Map<ClassLoader,Owner> InitModuleOwners = new java.util.WeakHashMap<>();
+    /**
+     * Manifest references that have been read.
+     */
+    private final static Set<String> InitSeen = new java.util.HashSet<>();
+    /**
+     * Sealed packages by manifest reference in class path order, for
+     * {@link #Refresh}.  Recorded when {@link PackageWatch} is
+     * enabled.
+     */
+    private final static Map<String,Package[]> InitRecords = new java.util.LinkedHashMap<>();
+    /**
+     * Read the manifests of a class loader chain from its root, so
+     * that a manifest is read once, and its packages belong to the
+     * first class loader in the chain that finds it.  A loader that
+     * has been initialized is not read again.
+     * 
+     * @param loader A class loader chain terminal
+     * 
+     * @param parallel Read manifests on a bounded pool of threads.
+     * 
+     * @param store Package store under construction
+     */
+    private static void InitChain(ClassLoader loader, boolean parallel, Map<String,Package> store){
+        if (null != loader && (!InitOwners.containsKey(loader))){
+
+            Owner owner = new Owner(loader);
+
+            if (loader instanceof ChainClassLoaderLink){
+                ChainClassLoaderLink link = (ChainClassLoaderLink)loader;
+
+                for (ClassLoader member : link.members()){
+
+                    InitChain(member,parallel,store);
+                }
+            }
+            else {
+                InitChain(loader.getParent(),parallel,store);
+
+                try {
+                    /*
+                     * The parent chain has been read, so a URL class
+                     * loader need only read its own class path.
+                     */
+                    Enumeration<URL> enu;
+                    if (loader instanceof URLClassLoader)
+                        enu = ((URLClassLoader)loader).findResources("META-INF/MANIFEST.MF");
+                    else
+                        enu = loader.getResources("META-INF/MANIFEST.MF");
+
+                    List<URL> list = new ArrayList<>();
+                    while (enu.hasMoreElements()){
+                        URL src = enu.nextElement();
+                        String ref = src.toExternalForm();
+                        if (InitSeen.add(ref)){
+
+                            owner.urls.add(ref);
+
+                            list.add(src);
+
+                            PackageWatch watch = PackageWatch.Instance;
+                            if (null != watch){
+                                watch.register(owner,src);
+                            }
+                        }
+                        else {
+                            owner.skipped.add(src);
+
+                            Metrics.Instance.manifestsSkipped.increment();
+                        }
+                    }
+
+                    if (parallel)
+                        InitParallel(owner,list,store);
+                    else
+                        InitSerial(owner,list,store);
+                }
+                catch (IOException iox){
+                    Metrics.Instance.failed(null,iox);
+                }
+                catch (RuntimeException|Error exc){
+                    /*
+                     * The loader is not initialized, so that a later
+                     * init reads its manifests
+                     */
+                    InitSeen.removeAll(owner.urls);
+                    throw exc;
+                }
+            }
+            InitOwners.put(loader,owner);
+        }
+    }
+    /**
+     * Read manifests, and merge their packages into the store in
+     * class path order.
+     * 
+     * @param tail Package class loader
+     * 
+     * @param list Archive manifest references in class path order
+     * 
+     * @param store Package store under construction
+     */
+    private static void InitSerial(Owner tail, List<URL> list, Map<String,Package> store){
+        for (URL src : list){
+            try {
+                InitStore(store,src,InitRead(tail,src));
+            }
+            catch (IOException|RuntimeException exc){
+                /*
+                 * Recorded by InitRead
+                 */
+                InitStore(store,src,PARY);
+            }
+        }
+    }
+    /**
+     * Read manifests concurrently, and merge their packages into the
+     * store in class path order.
+     * 
+     * @param tail Package class loader
+     * 
+     * @param list Archive manifest references in class path order
+     * 
+     * @param store Package store under construction
+     */
+    private static void InitParallel(final Owner tail, List<URL> list, Map<String,Package> store){
+        final int count = list.size();
+        final int threads = Math.min(count,InitThreads);
+        if (1 < threads){
+
+            ExecutorService pool = Executors.newFixedThreadPool(threads,InitThreadFactory);
+            try {
+                List<Future<Package[]>> read = new ArrayList<>(count);
+                for (final URL src : list){
+
+                    read.add(pool.submit(() -> InitRead(tail,src)));
+                }
+                for (int cc = 0; cc < count; cc++){
+                    try {
+                        InitStore(store,list.get(cc),read.get(cc).get());
+                    }
+                    catch (ExecutionException exc){
+                        if (exc.getCause() instanceof Error){
+                            throw (Error)exc.getCause();
+                        }
+                        /*
+                         * Recorded by InitRead
+                         */
+                        InitStore(store,list.get(cc),PARY);
+                    }
+                }
+            }
+            catch (InterruptedException inx){
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                pool.shutdownNow();
+            }
+        }
+        else {
+            InitSerial(tail,list,store);
+        }
+    }
+    private final static ThreadFactory InitThreadFactory = new ThreadFactory(){
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r,"syntelos.rpkg.Init");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    /**
+     * Store packages not already found on the class path.
+     * 
+     * @param store Package store under construction
+     * 
+     * @param src Archive manifest reference
+     * 
+     * @param list Sealed packages from one archive manifest
+     */
+    private static void InitStore(Map<String,Package> store, URL src, Package[] list){
+        if (null != PackageWatch.Instance){
+
+            InitRecords.put(src.toExternalForm(),list);
+        }
+        InitStore(store,list);
+    }
+    private static void InitStore(Map<String,Package> store, Package[] list){
+        for (Package p : list){
+
+            if (!store.containsKey(p.name)){
+
+                store.put(p.name,p);
+            }
+        }
+    }
+    /**
+     * Derive the sealed packages of a manifest reference, from the
+     * {@link PackageCache} when possible.
+     * 
+     * @param tail Package class loader
+     * 
+     * @param src An archive manifest reference
+     * 
+     * @return Sealed packages in manifest order
+     */
+    private static Package[] InitRead(Owner tail, URL src)
+        throws IOException
+    {
+        final long start = System.nanoTime();
+        try {
+            PackageCache cache = PackageCache.Instance;
+            if (null != cache){
+                Archive archive = InitArchive(src);
+                if (null != archive){
+                    PackageCache.Key key = new PackageCache.Key(archive);
+
+                    Package[] list = cache.get(key,tail,src);
+                    if (null == list){
+
+                        list = InitMF(tail,src);
+
+                        cache.put(key,list);
+
+                        Metrics.Instance.parsed(src,(System.nanoTime()-start),false);
+                    }
+                    else {
+                        Metrics.Instance.parsed(src,(System.nanoTime()-start),true);
+                    }
+                    return list;
+                }
+            }
+            Package[] list = InitMF(tail,src);
+
+            Metrics.Instance.parsed(src,(System.nanoTime()-start),false);
+
+            return list;
+        }
+        catch (IOException|RuntimeException exc){
+
+            Metrics.Instance.failed(src,exc);
+
+            throw exc;
+        }
+    }
+    /**
+     * Archive manifest reference in a file, or in archives nested in
+     * a file.
+     */
+    final static class Archive
+        extends Object
+    {
+        /**
+         * Archive file
+         */
+        final File file;
+        /**
+         * Entry names of nested archives, outermost first
+         */
+        final String[] nested;
+        /**
+         * Archive file path and nested entry names
+         */
+        final String path;
+
+        Archive(File file, String[] nested){
+            super();
+            this.file = file.getAbsoluteFile();
+            this.nested = nested;
+            StringBuilder path = new StringBuilder(this.file.getPath());
+            for (String name : nested){
+                path.append("!/").append(name);
+            }
+            this.path = path.toString();
+        }
+
+        /**
+         * @return Reader of the (nested) archive, to be closed by the
+         * caller
+         */
+        ZipBuffer zip()
+            throws IOException
+        {
+            return ZipBuffer.Open(this.file,this.nested);
+        }
+    }
+    /**
+     * Recognizes manifest references of the forms
+     * 
+     * <pre>
+     * jar:file:/app.jar!/META-INF/MANIFEST.MF
+     * jar:file:/app.jar!/BOOT-INF/lib/lib.jar!/META-INF/MANIFEST.MF
+     * jar:nested:/app.jar/!BOOT-INF/lib/lib.jar!/META-INF/MANIFEST.MF
+     * </pre>
+     * 
+     * @param src An archive manifest reference
+     * 
+     * @return The archive for a manifest reference, otherwise null.
+     */
+    static Archive InitArchive(URL src){
+        if ("jar".equals(src.getProtocol())){
+            String spec = src.getPath();
+            if (spec.endsWith("!/META-INF/MANIFEST.MF")){
+                spec = spec.substring(0,spec.length()-22);
+                String outer;
+                String[] nested;
+                if (spec.startsWith("file:")){
+                    String[] list = spec.split("!/");
+                    outer = list[0];
+                    nested = new String[list.length-1];
+                    System.arraycopy(list,1,nested,0,nested.length);
+                }
+                else if (spec.startsWith("nested:")){
+                    int bang = spec.indexOf("/!");
+                    if (0 < bang){
+                        outer = "file:"+spec.substring(7,bang);
+                        nested = spec.substring(bang+2).split("!/");
+                    }
+                    else {
+                        return null;
+                    }
+                }
+                else {
+                    return null;
+                }
+                try {
+                    return new Archive(new File(new URI(outer)),nested);
+                }
+                catch (URISyntaxException|IllegalArgumentException exc){
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+    /**
+     * @param src A manifest reference
+     * 
+     * @return The manifest file for a manifest reference of the form
+     * "file:/dir/META-INF/MANIFEST.MF", otherwise null.
+     */
+    static File InitDirectory(URL src){
+        if ("file".equals(src.getProtocol()) && src.getPath().endsWith("/META-INF/MANIFEST.MF")){
+            try {
+                File file = new File(src.toURI());
+                if (file.isFile())
+                    return file;
+                else
+                    return null;
+            }
+            catch (URISyntaxException|IllegalArgumentException exc){
+                return null;
+            }
+        }
+        else {
+            return null;
+        }
+    }
+    /**
+     * Open a manifest given a manifest reference.
+     * 
+     * @param tail Package class loader
+     * 
+     * @param src An archive manifest reference
+     * 
+     * @return Sealed packages in manifest order
+     */
+    private static Package[] InitMF(Owner tail, URL src)
+        throws IOException
+    {
+        Events.Manifest ev = new Events.Manifest();
+        ev.begin();
+
+        Package[] list = null;
+        Manifest man = null;
+
+        Archive archive = InitArchive(src);
+        if (null != archive){
+            /*
+             * Read the package index or the manifest from the
+             * archive central directory, and close the archive.
+             * Nested archives are read from the outer archive.
+             */
+            try {
+                ZipBuffer zip = archive.zip();
+                try {
+                    list = PackageIndex.Read(zip,tail,src);
+                    if (null != list){
+                        ev.indexed = true;
+                    }
+                    else {
+                        ByteBuffer buf = zip.get(JarFile.MANIFEST_NAME);
+                        if (null != buf){
+                            ev.bytes = buf.remaining();
+
+                            man = new Manifest(new ZipBuffer.Input(buf));
+
+                            list = InitMF(tail,src,man);
+                        }
+                        else {
+                            list = PARY;
+                        }
+                    }
+                }
+                finally {
+                    zip.close();
+                }
+            }
+            catch (IOException|RuntimeException exc){
+                /*
+                 * Use the URL connection
+                 */
+                list = null;
+                man = null;
+            }
+        }
+        if (null == list){
+
+            man = InitManifest(src,ev);
+
+            list = (null != man)?(InitMF(tail,src,man)):(PARY);
+        }
+
+        ev.end();
+        if (ev.shouldCommit()){
+            ev.url = src.toExternalForm();
+            ev.entries = (null != man)?(man.getEntries().size()):(0);
+            ev.sealed = list.length;
+            ev.commit();
+        }
+        return list;
+    }
+    /**
+     * Derive a manifest object model from a manifest reference.
+     * 
+     * @param src An archive manifest reference
+     * 
+     * @param ev Event recording the manifest size, when known
+     * 
+     * @return Archive manifest, or null
+     */
+    private static Manifest InitManifest(URL src, Events.Manifest ev)
+        throws IOException
+    {
+        File file = InitDirectory(src);
+        if (null != file){
+            /*
+             * Read the manifest of an exploded archive.
+             */
+            ev.bytes = file.length();
+
+            InputStream in = Files.newInputStream(file.toPath());
+            try {
+                return new Manifest(in);
+            }
+            finally {
+                in.close();
+            }
+        }
+
+        URLConnection con = src.openConnection();
+        if (con instanceof JarURLConnection){
+            /*
+             * Read the manifest from an archive that is not retained
+             * by the connection cache.
+             */
+            JarURLConnection jcon = (JarURLConnection)con;
+            jcon.setUseCaches(false);
+            JarFile jfi = jcon.getJarFile();
+            try {
+                ZipEntry ent = jfi.getEntry(JarFile.MANIFEST_NAME);
+                if (null != ent){
+                    ev.bytes = ent.getSize();
+                }
+                return jfi.getManifest();
+            }
+            finally {
+                jfi.close();
+            }
+        }
+        else {
+            InputStream in = con.getInputStream();
+            try {
+                return new Manifest(in);
+            }
+            finally {
+                in.close();
+            }
+        }
+    }
+    /**
+     * Derive package information found in an archive manifest.
+     * 
+     * @param tail Package class loader, or null for packages without
+     * a class loader, as written to a {@link PackageIndex}
+     * @param src Archive manifest reference
+     * @param man Archive manifest object model
+     * 
+     * @return Sealed packages in manifest order
+     */
+    static Package[] InitMF(Owner tail, URL src, Manifest man){
+        if (null != src && null != man){
+            /*
+             * Read the archive manifest object model into a list of
+             * sealed packages.
+             */
+            List<Package> list = new ArrayList<>();
+            Map<String,Attributes> map = man.getEntries();
+            for (Map.Entry<String,Attributes> ent : map.entrySet()){
+                String name = ent.getKey();
+                if (name.endsWith("/")){
+                    Attributes attr = ent.getValue();
+
+                    Package p = new Package(tail,src,man,name,attr);
+
+                    if (p.sealed){
+
+                        list.add(p);
+                    }
+                }
+            }
+            return list.toArray(PARY);
+        }
+        else {
+            throw new IllegalArgumentException();
+        }
+    }
+    /**
+     * Exports the init class loader as the terminal of the
+     * application class loader chain.  A single init class loader is
+     * held weakly by the package subsystem, and is derived again
+     * after it has been collected.  A link over disjoint tails holds
+     * its members weakly, and is held strongly until a member has
+     * been collected, when {@link #Expunge()} derives it again.
+     * 
+     * @return The init class loader, or a derivative representing the
+     * init class loader chain.
+     * 
+     * @throws java.lang.IllegalStateException When not initialized
+     * and unable to return the init class loader
+     */
+    public final static ClassLoader InitClassLoader(){
+        Reference<ClassLoader> ref = InitClassLoader;
+        if (null != ref){
+            ClassLoader re = ref.get();
+            if (null != re){
+                return re;
+            }
+        }
+        synchronized(InitLock){
+            ClassLoader re = InitDerive();
+            if (null != re)
+                return re;
+            else
+                throw new IllegalStateException("Not initialized");
+        }
+    }
+    /**
+     * Derive the init class loader from the live tails, under the
+     * init lock.
+     * 
+     * @return The init class loader, or null without live tails
+     */
+    private static ClassLoader InitDerive(){
+        List<ClassLoader> members = new ArrayList<>();
+        Iterator<Reference<ClassLoader>> tails = InitTails.iterator();
+        while (tails.hasNext()){
+            ClassLoader tail = tails.next().get();
+            if (null == tail)
+                tails.remove();
+            else
+                members.add(tail);
+        }
+        ClassLoader re;
+        if (members.isEmpty()){
+            InitLink = null;
+            InitClassLoader = null;
+            return null;
+        }
+        else if (1 == members.size()){
+            re = members.get(0);
+
+            InitLink = null;
+        }
+        else {
+            /*
+             * Create join over every tail
+             */
+            Events.Chain ev = new Events.Chain();
+            ev.begin();
+
+            ChainClassLoaderLink link = ChainClassLoaderLink.Weak(members);
+
+            ChainEvent(ev,Events.Chain.CREATE,link);
+
+            InitLink = link;
+            re = link;
+        }
+        InitClassLoader = new WeakReference<>(re);
+        return re;
+    }
+    /**
+     * Maintain the list of class loader chain terminals with a new
+     * terminal.  The class loaders in the list are held weakly.
+     */
+    private final static void UniqueClassLoader(ClassLoader b){
+        Events.Chain ev = new Events.Chain();
+        ev.begin();
+
+        for (Reference<ClassLoader> ref : InitTails){
+            ClassLoader a = ref.get();
+            if (a == b || (null != a && IsChild(a,b))){
+                /*
+                 * Prune call
+                 */
+                ChainEvent(ev,Events.Chain.PRUNE,b);
+                return;
+            }
+        }
+        boolean replaced = false;
+        Iterator<Reference<ClassLoader>> tails = InitTails.iterator();
+        while (tails.hasNext()){
+            ClassLoader a = tails.next().get();
+            if (null == a)
+                tails.remove();
+            else if (IsChild(b,a)){
+                tails.remove();
+                replaced = true;
+            }
+        }
+        InitTails.add(new WeakReference<>(b));
+
+        InitClassLoader = null;
+        InitLink = null;
+
+        if (replaced){
+            /*
+             * Accept join
+             */
+            ChainEvent(ev,Events.Chain.ACCEPT,b);
+        }
+        else {
+            /*
+             * Add a disjoint tail
+             */
+            ChainEvent(ev,Events.Chain.ADD,b);
+        }
+    }
+    private final static void ChainEvent(Events.Chain ev, String decision, ClassLoader loader){
+        ev.end();
+        if (ev.shouldCommit()){
+            ev.decision = decision;
+            ev.loader = String.valueOf(loader);
+            ev.loaderType = loader.getClass();
+            ev.tails = InitTails.size();
+            ev.commit();
+        }
+    }
+    /**
+     * Remove the packages and manifest references of collected class
+     * loaders, and derive the init class loader again when a member
+     * of its link has been collected.  A manifest reference of a
+     * collected class loader that was skipped by a live class loader
+     * is read again for the live class loader, so that the packages
+     * it shares remain in the store.  This is performed by
+     * initialization and by a daemon thread, so that lookups do not
+     * wait on the init lock, and need not be called by applications.
+     */
+    public static void Expunge(){
+        Reference<? extends ClassLoader> ref = Owners.poll();
+        if (null != ref){
+
+            Expunge(ref);
+        }
+    }
     /**
-     * The required initialization needs to be called on the tail of
-     * the class loader chain.  Typically, the "main" class is loaded
-     * by the class loader that is the tail (or, "leaf") of the class
-     * loader "parent" chain.
+     * Daemon thread body, see {@link Owner}.
      */
-    public static void Init(Class c){
-        Init(c.getClassLoader());
+    private static void ExpungeRun(){
+        while (true){
+            try {
+                Expunge(Owners.remove());
+            }
+            catch (InterruptedException inx){
+                return;
+            }
+            catch (RuntimeException exc){
+                Metrics.Instance.failed(exc);
+            }
+        }
     }
     /**
-     * The required initialization needs to be called on the tail of
-     * the class loader chain.  
+     * @param ref Dequeued owner
      */
-    public static void Init(ClassLoader tail){
+    private static void Expunge(Reference<? extends ClassLoader> ref){
+        synchronized(InitLock){
+            Set<Owner> dead = new java.util.HashSet<>();
+            do {
+                Owner owner = (Owner)ref;
+                dead.add(owner);
+                InitSeen.removeAll(owner.urls);
+                InitRecords.keySet().removeAll(owner.urls);
+                Metrics.Instance.expunge(owner.urls);
 
-        InitClassLoader = UniqueClassLoader(InitClassLoader,tail);
+                ref = Owners.poll();
+            }
+            while (null != ref);
 
-        try {
-            Enumeration<URL> enu = tail.getResources("META-INF/MANIFEST.MF");
+            PackageWatch watch = PackageWatch.Instance;
+            if (null != watch){
+                watch.expunge(dead);
+            }
 
-            while (enu.hasMoreElements()){
+            ChainClassLoaderLink link = InitLink;
+            if (null != link && link.collected()){
 
-                URL src = enu.nextElement();
+                InitDerive();
+            }
 
-                InitMF(tail,src);
+            Snapshot prev = Package.Store;
+            Map<String,Package> store = new java.util.LinkedHashMap<>();
+            for (Package p : prev.list){
+                if (!dead.contains(p.owner)){
+                    store.put(p.name,p);
+                }
             }
-        }
-        catch (IOException iox){
-            iox.printStackTrace();
-        }
-    }
-    /**
-     * Open a manifest given a manifest reference.
-     * 
-     * @param tail A class loader chain terminal
-     * 
-     * @param src An archive manifest reference
-     * 
-     * @throws java.lang.IllegalStateException Reference argument
-     * 'src' is not a pointer to an archive manifest.
-     */
-    private static void InitMF(ClassLoader tail, URL src)
-        throws IOException
-    {
-        /*
-         * Derive a manifest object model from a manifest reference.
-         */
-        URLConnection con = src.openConnection();
-        InputStream in = con.getInputStream();
-        try {
-            if (con instanceof JarURLConnection){
-                JarURLConnection jcon = (JarURLConnection)con;
-                JarFile jfi = jcon.getJarFile();
-                Manifest man = jfi.getManifest();
-                if (null != man){
+            boolean read = false;
+            for (Owner owner : InitOwners.values()){
+                if (!dead.contains(owner)){
 
-                    InitMF(tail,src,man);
+                    read |= ExpungeRead(owner,store);
                 }
             }
-            else {
-                Manifest man = new Manifest(in);
+            if (read || store.size() != prev.list.length){
 
-                InitMF(tail,src,man);
+                Package.Store = new Snapshot(prev.generation+1,Collections.unmodifiableMap(store));
             }
         }
-        finally {
-            in.close();
-        }
     }
     /**
-     * Store package information found in an archive manifest.
+     * Read the manifest references skipped by a live class loader
+     * that are no longer read for another.
      * 
-     * @param tail Class loader chain terminal
-     * @param src Archive manifest reference
-     * @param man Archive manifest object model
+     * @return Manifest references were read
      */
-    private static void InitMF(ClassLoader tail, URL src, Manifest man){
-        if (null != tail && null != src && null != man){
-            /*
-             * Read the archive manifest object model into the package
-             * store.
-             */
-            Map<String,Attributes> map = man.getEntries();
-            for (Map.Entry<String,Attributes> ent : map.entrySet()){
-                String name = ent.getKey();
-                if (name.endsWith("/") && (!Package.Store.containsKey(name))){
-                    Attributes attr = ent.getValue();
+    private static boolean ExpungeRead(Owner owner, Map<String,Package> store){
+        List<URL> list = null;
+        Iterator<URL> skipped = owner.skipped.iterator();
+        while (skipped.hasNext()){
+            URL src = skipped.next();
+            String ref = src.toExternalForm();
+            if (InitSeen.add(ref)){
+                skipped.remove();
 
-                    Package p = new Package(tail,src,man,name,attr);
-
-                    if (p.sealed){
+                owner.urls.add(ref);
 
-                        Package.Store.put(p.name,p);
-                    }
+                PackageWatch watch = PackageWatch.Instance;
+                if (null != watch){
+                    watch.register(owner,src);
                 }
+                if (null == list){
+                    list = new ArrayList<>();
+                }
+                list.add(src);
             }
         }
+        if (null != list){
+
+            InitSerial(owner,list,store);
+
+            return true;
+        }
         else {
-            throw new IllegalArgumentException();
+            return false;
         }
     }
     /**
-     * Exports the init class loader as the terminal of the
-     * application class loader chain.
+     * Package store change listener, see {@link PackageWatch}.
+     */
+    public interface Listener {
+        /**
+         * Called after a refresh has published a changed store.
+         * 
+         * @param removed Packages no longer in the store
+         * 
+         * @param added Packages new to the store
+         */
+        public void refreshed(Package[] removed, Package[] added);
+    }
+    private final static List<Listener> Listeners = new java.util.concurrent.CopyOnWriteArrayList<>();
+
+    /**
+     * @param listener Package store change listener
+     */
+    public static void AddListener(Listener listener){
+        if (null != listener){
+            Listeners.add(listener);
+        }
+    }
+    /**
+     * @param listener Package store change listener
+     */
+    public static void RemoveListener(Listener listener){
+        Listeners.remove(listener);
+    }
+    /**
+     * Read changed manifest references again, and publish a store
+     * having their packages in place of those they had.  The store
+     * is rebuilt from the records of every manifest reference in
+     * class path order, so that a package is found in the first
+     * archive defining it, as by {@link #Init}.
      * 
-     * @return The init class loader, or a derivative representing the
-     * init class loader chain.
+     * A manifest reference that cannot be read retains its packages,
+     * unless its file has been removed.
      * 
-     * @throws java.lang.IllegalStateException When not initialized
-     * and unable to return the init class loader
+     * @param sources Changed manifest references
      */
-    public final static ClassLoader InitClassLoader(){
-        if (null != InitClassLoader)
-            return InitClassLoader;
-        else
-            throw new IllegalStateException("Not initialized");
-    }
-    private final static ClassLoader UniqueClassLoader(ClassLoader a, ClassLoader b){
-        if (null == a)
-            return b;
-        else if (null == b)
-            return a;
-        else if (a instanceof ChainClassLoaderLink){
-            ChainClassLoaderLink c = (ChainClassLoaderLink)a;
+    static void Refresh(List<PackageWatch.Source> sources){
+        Package[] removed, added;
+        synchronized(InitLock){
 
-            if (IsChild(b,c.parent) && IsChild(b,c.child)){
-                /*
-                 * Accept join
-                 */
-                return b;
-            }
-            else if (IsChild(c.parent,b) || IsChild(c.child,b)){
-                /*
-                 * Prune call
-                 */
-                return c;
+            Expunge();
+
+            boolean changed = false;
+            for (PackageWatch.Source source : sources){
+                String ref = source.src.toExternalForm();
+                if (null != source.owner.get() && InitRecords.containsKey(ref)){
+                    Package[] list;
+                    try {
+                        list = InitRead(source.owner,source.src);
+                    }
+                    catch (IOException|RuntimeException exc){
+                        Archive archive = InitArchive(source.src);
+                        if (null != archive && (!archive.file.exists()))
+                            list = PARY;
+                        else if (null == archive && null == InitDirectory(source.src))
+                            list = PARY;
+                        else
+                            continue;
+                    }
+                    InitRecords.put(ref,list);
+                    changed = true;
+                }
             }
+            if (!changed)
+                return;
             else {
-                /*
-                 * Create join
-                 */
-                return new ChainClassLoaderLink(a,b);
+                Snapshot prev = Package.Store;
+                Map<String,Package> store = new java.util.LinkedHashMap<>();
+                for (Package[] list : InitRecords.values()){
+
+                    InitStore(store,list);
+                }
+                List<Package> rem = new ArrayList<>();
+                for (Package p : prev.list){
+                    if (p != store.get(p.name)){
+                        rem.add(p);
+                    }
+                }
+                List<Package> add = new ArrayList<>();
+                for (Package p : store.values()){
+                    if (p != prev.map.get(p.name)){
+                        add.add(p);
+                    }
+                }
+                if (rem.isEmpty() && add.isEmpty())
+                    return;
+                else {
+                    removed = rem.toArray(PARY);
+                    added = add.toArray(PARY);
+
+                    Package.Store = new Snapshot(prev.generation+1,Collections.unmodifiableMap(store));
+                }
+            }
+        }
+
+        PackageCache cache = PackageCache.Instance;
+        if (null != cache){
+            try {
+                cache.store();
+            }
+            catch (IOException iox){
+                Metrics.Instance.failed(iox);
+            }
+        }
+
+        for (Listener listener : Listeners){
+            try {
+                listener.refreshed(removed,added);
+            }
+            catch (RuntimeException exc){
+                Metrics.Instance.failed(exc);
             }
         }
-        else if (IsChild(a,b))
-            return a;
-        else if (IsChild(b,a))
-            return b;
-        else
-            return new ChainClassLoaderLink(a,b);
     }
     /**
      * The "child" relation reflects the class loader chain "parent"
@@ -238,59 +1446,157 @@ public final class Package
      * @param c Is child of
      * @param p Is parent of
      * 
-     * @return Relationship validity
+     * @return Relationship validity: 'p' is found in the parent chain
+     * of 'c'
+     * 
+     * @see ClassLoaderIndex
      */
     private final static boolean IsChild(ClassLoader c, ClassLoader p){
-        while (null != p){
-            if (p == c.getParent())
-                return true;
-            else {
-                p = p.getParent();
-            }
-        }
-        return false;
-    }
 
-    private final static Package[] PARY = new Package[0];
+        return ClassLoaderIndex.IsAncestor(p,c);
+    }
 
+    /**
+     * @param name Package or class name
+     * 
+     * @return The sealed package having the longest name that is
+     * equal to, or a prefix of, the argument
+     */
     public static Package getPackage(String name){
-        int pxl = -1;
+        Events.Lookup ev = new Events.Lookup();
+        ev.begin();
 
-        while (true){
-            Package p = Package.Store.get(name);
-            if (null != p)
-                return p;
-            else {
-                pxl = name.lastIndexOf('.');
-                if (0 < pxl)
-                    name = name.substring(0,pxl);
-                else
-                    break;
-            }
+        /*
+         * A sealed package name is answered by the map
+         */
+        Snapshot store = Package.Store;
+        Package re = store.map.get(name);
+        if (null == re){
+            re = store.trie.longest(name,name.length());
         }
-        return null;
+
+        ev.end();
+        if (ev.shouldCommit()){
+            ev.name = name;
+            ev.found = (null != re);
+            ev.commit();
+        }
+        return Metrics.Instance.lookup(re);
     }
+    /**
+     * @param c Class
+     * 
+     * @return The sealed package having the longest name that is
+     * equal to, or a prefix of, the package of the class
+     */
     public static Package getPackage(Class c){
-        String cn = c.getName();
+        Events.Lookup ev = new Events.Lookup();
+        ev.begin();
+
+        Memo memo = Memos.get(c);
+        if (memo.generation != Package.Store.generation){
+            /*
+             * Stale after Init
+             */
+            Memos.remove(c);
+
+            memo = Memos.get(c);
+        }
+
+        ev.end();
+        if (ev.shouldCommit()){
+            ev.name = c.getName();
+            ev.found = (null != memo.pkg);
+            ev.commit();
+        }
+        return Metrics.Instance.lookup(memo.pkg);
+    }
+    /**
+     * @param cn Class name
+     * 
+     * @return The sealed package having the longest name that is
+     * equal to, or a prefix of, the package of the named class
+     */
+    static Package ClassPackage(String cn){
         int cxl = cn.lastIndexOf('.');
-        String pn = cn.substring(0,cxl);
+        if (0 < cxl)
+            return Package.Store.trie.longest(cn,cxl);
+        else
+            return null;
+    }
+    /**
+     * Result of {@link #getPackage(Class)} in a store generation.
+     * The memo refers to the package, and not to the class or the
+     * store.
+     */
+    private final static class Memo
+        extends Object
+    {
+        final int generation;
+        final Package pkg;
 
-        while (true){
-            Package p = Package.Store.get(pn);
-            if (null != p)
-                return p;
-            else {
-                cxl = pn.lastIndexOf('.');
+        Memo(int generation, Package pkg){
+            super();
+            this.generation = generation;
+            this.pkg = pkg;
+        }
+    }
+    private final static ClassValue<Memo> Memos = new ClassValue<Memo>(){
+            protected Memo computeValue(Class<?> c){
+                Snapshot store = Package.Store;
+                String cn = c.getName();
+                int cxl = cn.lastIndexOf('.');
                 if (0 < cxl)
-                    pn = pn.substring(0,cxl);
+                    return new Memo(store.generation,store.trie.longest(cn,cxl));
                 else
-                    break;
+                    return new Memo(store.generation,null);
             }
-        }
-        return null;
+        };
+    /**
+     * Attribute query over the current store, for example
+     * 
+     * <pre>
+     * prefix=com.acme &amp; vendor=Acme Corporation &amp; impl.version&lt;2.3
+     * </pre>
+     * 
+     * @param expr Query expression, as described by {@link PackageQuery}
+     * 
+     * @return Packages matching every term, in class path order
+     * 
+     * @throws java.lang.IllegalArgumentException Invalid expression
+     */
+    public static Package[] query(String expr){
+        return Package.Store.query().query(expr);
+    }
+    /**
+     * Package name search over the current store.
+     * 
+     * @param query Name substring, or name segment prefixes separated
+     * by '.'
+     * 
+     * @param limit Maximum number of results
+     * 
+     * @return Packages in rank order, as described by {@link
+     * PackageSearch}
+     */
+    public static Package[] search(String query, int limit){
+        return Package.Store.search().search(query,limit);
     }
+    /**
+     * @return A copy of the packages of the current store, in class
+     * path order.
+     */
     public static Package[] getPackages(){
-        return (Package[])Package.Store.values().toArray(PARY);
+
+        return Packages().clone();
+    }
+    /**
+     * @return The packages of the current store, in class path order.
+     * The array is shared by callers in this package, and must not be
+     * modified.
+     */
+    static Package[] Packages(){
+        return Package.Store.list;
     }
     private final static int HASHKEY = Package.class.hashCode();
 
@@ -314,70 +1620,140 @@ public final class Package
         String[] list = new String[count];
         for (int cc = 0; cc < count; cc++){
 
-            list[cc] = strtok.nextToken();
+            list[cc] = Intern(strtok.nextToken());
         }
         return list;
     }
 
     /**
-     * If a package is sealed, the reference and loader fields will be
+     * Shared instances of attribute values, name segments and
+     * attribute sets, held weakly: an instance is dropped when no
+     * package or trie node refers to it.
+     */
+    private final static Map<Object,Reference<Object>> Intern = new java.util.WeakHashMap<>();
+
+    final static String Intern(String value){
+        if (null == value)
+            return null;
+        else
+            return (String)Interned(value);
+    }
+    private final static Info Intern(Info value){
+
+        return (Info)Interned(value);
+    }
+    private final static Object Interned(Object value){
+        synchronized(Intern){
+            Reference<Object> ref = Intern.get(value);
+            Object re = (null != ref)?(ref.get()):(null);
+            if (null == re){
+                Intern.put(value,new WeakReference<>(value));
+                return value;
+            }
+            else
+                return re;
+        }
+    }
+    /**
+     * Specification and implementation attributes, shared by the
+     * packages having equal attributes.
+     */
+    private final static class Info
+        extends Object
+    {
+        final String specTitle, specVersion, specVendor, implTitle, implVersion, implVendor;
+        final int hashCode;
+
+        Info(String specTitle, String specVersion, String specVendor, String implTitle, String implVersion, String implVendor){
+            super();
+            this.specTitle = Intern(specTitle);
+            this.specVersion = Intern(specVersion);
+            this.specVendor = Intern(specVendor);
+            this.implTitle = Intern(implTitle);
+            this.implVersion = Intern(implVersion);
+            this.implVendor = Intern(implVendor);
+            this.hashCode = java.util.Objects.hash(specTitle,specVersion,specVendor,implTitle,implVersion,implVendor);
+        }
+
+        public int hashCode(){
+            return this.hashCode;
+        }
+        public boolean equals(Object that){
+            if (this == that)
+                return true;
+            else if (that instanceof Info){
+                Info info = (Info)that;
+                return (this.hashCode == info.hashCode &&
+                        this.specTitle == info.specTitle &&
+                        this.specVersion == info.specVersion &&
+                        this.specVendor == info.specVendor &&
+                        this.implTitle == info.implTitle &&
+                        this.implVersion == info.implVersion &&
+                        this.implVendor == info.implVendor);
+            }
+            else
+                return false;
+        }
+    }
+
+    /**
+     * If a package is sealed, the reference and owner fields will be
      * defined with the values passed to the constructor.  Otherwise
      * these two fields will be null.
      */
     public final boolean sealed;
     public final String name;
-    public final String entry;
-    public final String specTitle;
-    public final String specVersion;
-    public final String specVendor;
-    public final String implTitle;
-    public final String implVersion;
-    public final String implVendor;
     public final URL reference;
-    public final ClassLoader loader;
+    private final Owner owner;
+    private final Info info;
     public final int hashCode;
 
-    private final String[] namelist;
-    private final int namelist_count;
+    /**
+     * Derived on demand from the package name
+     */
+    private volatile String[] namelist;
 
     /**
      * Constructor called from {@link Package#Init}.
      */
-    private Package(ClassLoader loader, URL url, Manifest man, String name, Attributes attr) {
+    private Package(Owner owner, URL url, Manifest man, String name, Attributes attr) {
+        this(owner,url,name,
+             attr.getValue(Name.SPECIFICATION_TITLE),
+             attr.getValue(Name.SPECIFICATION_VERSION),
+             attr.getValue(Name.SPECIFICATION_VENDOR),
+             attr.getValue(Name.IMPLEMENTATION_TITLE),
+             attr.getValue(Name.IMPLEMENTATION_VERSION),
+             attr.getValue(Name.IMPLEMENTATION_VENDOR),
+             "true".equalsIgnoreCase(attr.getValue(Name.SEALED)));
+    }
+    /**
+     * Constructor called from {@link PackageCache}, for a sealed
+     * package.
+     */
+    Package(Owner owner, URL url, String name, String specTitle, String specVersion, String specVendor, String implTitle, String implVersion, String implVendor) {
+        this(owner,url,name,specTitle,specVersion,specVendor,implTitle,implVersion,implVendor,true);
+    }
+    /**
+     * Constructor called from {@link #InitModule}, with sealed true.
+     * The owner is null for packages derived without a class loader,
+     * see {@link PackageIndex#Write}.
+     */
+    private Package(Owner owner, URL url, String name, String specTitle, String specVersion, String specVendor, String implTitle, String implVersion, String implVendor, boolean sealed) {
         super();
-        if (null != loader && null != url && null != man && null != name && null != attr){
-            String specTitle   = attr.getValue(Name.SPECIFICATION_TITLE);
-            String specVersion = attr.getValue(Name.SPECIFICATION_VERSION);
-            String specVendor  = attr.getValue(Name.SPECIFICATION_VENDOR);
-            String implTitle   = attr.getValue(Name.IMPLEMENTATION_TITLE);
-            String implVersion = attr.getValue(Name.IMPLEMENTATION_VERSION);
-            String implVendor  = attr.getValue(Name.IMPLEMENTATION_VENDOR);
-            String sealed      = attr.getValue(Name.SEALED);
-            /*
-             */
-            if (null != sealed && "true".equalsIgnoreCase(sealed)) {
-                this.sealed = true;
+        if (null != url && null != name){
+            this.sealed = sealed;
+            if (sealed) {
                 this.reference = url;
-                this.loader = loader;
+                this.owner = owner;
             }
             else {
-                this.sealed = false;
                 this.reference = null;
-                this.loader = null;
+                this.owner = null;
             }
             this.name = Name2Java(name);
-            this.entry = name;
-            this.specTitle = specTitle;
-            this.specVersion = specVersion;
-            this.specVendor = specVendor;
-            this.implTitle = implTitle;
-            this.implVersion = implVersion;
-            this.implVendor = implVendor;
+            this.info = Intern(new Info(specTitle,specVersion,specVendor,implTitle,implVersion,implVendor));
 
             this.hashCode = (name.hashCode() ^ HASHKEY);
-
-            this.namelist = Namelist(this.name);
-            this.namelist_count = this.namelist.length;
         }
         else {
             throw new IllegalArgumentException();
@@ -392,45 +1768,70 @@ public final class Package
         return this.name;
     }
     public String getSpecificationTitle() {
-        return this.specTitle;
+        return this.info.specTitle;
     }
     public String getSpecificationVersion() {
-        return this.specVersion;
+        return this.info.specVersion;
     }
     public String getSpecificationVendor() {
-        return this.specVendor;
+        return this.info.specVendor;
     }
     public String getImplementationTitle() {
-        return this.implTitle;
+        return this.info.implTitle;
     }
     public String getImplementationVersion() {
-        return this.implVersion;
+        return this.info.implVersion;
     }
     public String getImplementationVendor() {
-        return this.implVendor;
+        return this.info.implVendor;
     }
     public boolean isSealed() {
         return this.sealed;
     }
+    /**
+     * @return The class loader of a sealed package, or null when
+     * unsealed or when the class loader has been collected.
+     */
+    public ClassLoader getLoader(){
+        if (null != this.owner)
+            return this.owner.get();
+        else
+            return null;
+    }
+    /**
+     * @return Package name in archive entry format, "a/b/c/"
+     */
+    public String getEntry(){
+
+        return Name2Zip(this.name);
+    }
+    private String[] segments(){
+        String[] namelist = this.namelist;
+        if (null == namelist){
+            namelist = Namelist(this.name);
+            this.namelist = namelist;
+        }
+        return namelist;
+    }
     public int namelistCount(){
 
-        return this.namelist_count;
+        return this.segments().length;
     }
     public String namelistHead(){
 
-        return this.namelist[0];
+        return this.segments()[0];
     }
     public String namelistGet(int ix){
 
-        return this.namelist[ix];
+        return this.segments()[ix];
     }
     public String namelistTail(){
-
-        return this.namelist[this.namelist_count-1];
+        String[] namelist = this.segments();
+        return namelist[namelist.length-1];
     }
     public String[] namelist(){
 
-        return this.namelist.clone();
+        return this.segments().clone();
     }
     public int hashCode(){
 
@@ -444,29 +1845,138 @@ public final class Package
 
         return (this == that);
     }
+    /**
+     * @param vendor Lower case vendor substring
+     * 
+     * @return Implementation or specification vendor contains the
+     * substring
+     */
+    private boolean vendor(String vendor){
+        final Info info = this.info;
+        return ((null != info.implVendor && info.implVendor.toLowerCase().contains(vendor)) ||
+                (null != info.specVendor && info.specVendor.toLowerCase().contains(vendor)));
+    }
     /**
      * Write package information in manifest format.
      */
     public void println(PrintStream out){
-        out.printf("Name: %s%n",this.entry);
+        try {
+            this.println((Appendable)out);
+        }
+        catch (IOException iox){
+            throw new java.io.UncheckedIOException(iox);
+        }
+    }
+    public void println(PrintWriter out){
+        try {
+            this.println((Appendable)out);
+        }
+        catch (IOException iox){
+            throw new java.io.UncheckedIOException(iox);
+        }
+    }
+    /**
+     * Manifest format
+     */
+    private void println(Appendable out)
+        throws IOException
+    {
+        final Info info = this.info;
+        final String nl = System.lineSeparator();
+
+        out.append("Name: ").append(this.getEntry()).append(nl);
 
         if (this.sealed)
-            out.println("Sealed: true");
+            out.append("Sealed: true").append(nl);
         else
-            out.println("Sealed: false");
-
-        if (null != this.implTitle)
-            out.printf("Implementation-Title: %s%n",this.implTitle);
-        if (null != this.implVersion)
-            out.printf("Implementation-Version: %s%n",this.implVersion);
-        if (null != this.implVendor)
-            out.printf("Implementation-Vendor: %s%n",this.implVendor);
-
-        if (null != this.specTitle)
-            out.printf("Specification-Title: %s%n",this.specTitle);
-        if (null != this.specVersion)
-            out.printf("Specification-Version: %s%n",this.specVersion);
-        if (null != this.specVendor)
-            out.printf("Specification-Vendor: %s%n",this.specVendor);
+            out.append("Sealed: false").append(nl);
+
+        if (null != info.implTitle)
+            out.append("Implementation-Title: ").append(info.implTitle).append(nl);
+        if (null != info.implVersion)
+            out.append("Implementation-Version: ").append(info.implVersion).append(nl);
+        if (null != info.implVendor)
+            out.append("Implementation-Vendor: ").append(info.implVendor).append(nl);
+
+        if (null != info.specTitle)
+            out.append("Specification-Title: ").append(info.specTitle).append(nl);
+        if (null != info.specVersion)
+            out.append("Specification-Version: ").append(info.specVersion).append(nl);
+        if (null != info.specVendor)
+            out.append("Specification-Vendor: ").append(info.specVendor).append(nl);
+    }
+    /**
+     * JSON format, as one line without line terminal.  Attributes
+     * missing from the manifest are omitted.
+     */
+    public void printJson(PrintWriter out){
+        final Info info = this.info;
+
+        out.append("{\"name\":");
+        Json(out,this.name);
+        out.append(",\"sealed\":").append(this.sealed?"true":"false");
+
+        if (null != info.implTitle){
+            out.append(",\"implementationTitle\":");
+            Json(out,info.implTitle);
+        }
+        if (null != info.implVersion){
+            out.append(",\"implementationVersion\":");
+            Json(out,info.implVersion);
+        }
+        if (null != info.implVendor){
+            out.append(",\"implementationVendor\":");
+            Json(out,info.implVendor);
+        }
+        if (null != info.specTitle){
+            out.append(",\"specificationTitle\":");
+            Json(out,info.specTitle);
+        }
+        if (null != info.specVersion){
+            out.append(",\"specificationVersion\":");
+            Json(out,info.specVersion);
+        }
+        if (null != info.specVendor){
+            out.append(",\"specificationVendor\":");
+            Json(out,info.specVendor);
+        }
+        if (null != this.reference){
+            out.append(",\"reference\":");
+            Json(out,this.reference.toExternalForm());
+        }
+        out.append('}');
+    }
+    /**
+     * Write a JSON string.
+     */
+    static void Json(PrintWriter out, String value){
+        out.append('"');
+        for (int cc = 0, count = value.length(); cc < count; cc++){
+            char ch = value.charAt(cc);
+            switch(ch){
+            case '"':
+                out.append("\\\"");
+                break;
+            case '\\':
+                out.append("\\\\");
+                break;
+            case '\n':
+                out.append("\\n");
+                break;
+            case '\r':
+                out.append("\\r");
+                break;
+            case '\t':
+                out.append("\\t");
+                break;
+            default:
+                if (' ' > ch)
+                    out.printf("\\u%04x",(int)ch);
+                else
+                    out.append(ch);
+                break;
+            }
+        }
+        out.append('"');
     }
 }
@@ -0,0 +1,364 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Package store cache file.  The sealed packages found in each
+ * archive manifest are recorded under the archive path (with any
+ * nested archive entry names), and the size and modification time of
+ * the archive file.  When the key of an archive is unchanged, its
+ * packages are rebuilt from the (memory mapped) cache file without
+ * reading the archive.
+ * 
+ * The cache is enabled by the system property "syntelos.rpkg.cache",
+ * naming the cache file.
+ * 
+ * <pre>
+ * file:    MAGIC VERSION count:int record*
+ * record:  length:int path:str size:long mtime:long count:int package*
+ * package: entry:str specTitle:str specVersion:str specVendor:str
+ *          implTitle:str implVersion:str implVendor:str
+ * str:     length:int (-1 for null) utf-8
+ * </pre>
+ * 
+ * @see Package#Init
+ */
+final class PackageCache
+    extends Object
+{
+    final static int MAGIC = 0x52504b43;
+    final static int VERSION = 1;
+
+    /**
+     * Cache defined by system property "syntelos.rpkg.cache", or
+     * null.
+     */
+    final static PackageCache Instance = Open(System.getProperty("syntelos.rpkg.cache"));
+
+
+    private static PackageCache Open(String path){
+        if (null != path && 0 < path.length()){
+
+            return new PackageCache(new File(path));
+        }
+        else {
+            return null;
+        }
+    }
+
+    /**
+     * Archive key
+     */
+    final static class Key
+        extends Object
+    {
+        final String path;
+        final long size, mtime;
+
+        Key(Package.Archive archive)
+            throws IOException
+        {
+            super();
+            BasicFileAttributes attr = Files.readAttributes(archive.file.toPath(),BasicFileAttributes.class);
+            this.path = archive.path;
+            this.size = attr.size();
+            this.mtime = attr.lastModifiedTime().toMillis();
+        }
+    }
+
+    /**
+     * Archive record: either a region of the mapped cache file, or a
+     * new encoding.
+     */
+    private final static class Record
+        extends Object
+    {
+        final long size, mtime;
+        final ByteBuffer data;
+
+        Record(long size, long mtime, ByteBuffer data){
+            super();
+            this.size = size;
+            this.mtime = mtime;
+            this.data = data;
+        }
+    }
+
+
+    public final File file;
+
+    private final Map<String,Record> records = new ConcurrentHashMap<>();
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private volatile boolean dirty;
+
+
+    private PackageCache(File file){
+        super();
+        this.file = file;
+        try {
+            this.load();
+        }
+        catch (IOException|RuntimeException exc){
+            /*
+             * Rebuild an unreadable cache file
+             */
+            this.records.clear();
+            this.dirty = true;
+        }
+    }
+
+
+    public int hits(){
+        return this.hits.get();
+    }
+    public int misses(){
+        return this.misses.get();
+    }
+    /**
+     * @param key Archive key
+     * @param loader Package class loader
+     * @param src Archive manifest reference
+     * 
+     * @return Sealed packages, or null for a cache miss.  A record
+     * that cannot be decoded is dropped, and is a cache miss.
+     */
+    Package[] get(Key key, Package.Owner loader, URL src){
+        Record rec = this.records.get(key.path);
+        if (null != rec && key.size == rec.size && key.mtime == rec.mtime){
+            try {
+                Package[] list = Decode(rec.data.duplicate(),loader,src);
+
+                this.hits.incrementAndGet();
+
+                return list;
+            }
+            catch (RuntimeException exc){
+                /*
+                 * Corrupt or truncated record
+                 */
+                this.records.remove(key.path,rec);
+                this.dirty = true;
+
+                Metrics.Instance.failed(exc);
+            }
+        }
+        this.misses.incrementAndGet();
+
+        return null;
+    }
+    /**
+     * @param key Archive key
+     * @param list Sealed packages read from the archive manifest
+     */
+    void put(Key key, Package[] list){
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buf);
+            Encode(out,list);
+            out.flush();
+
+            this.records.put(key.path,new Record(key.size,key.mtime,ByteBuffer.wrap(buf.toByteArray())));
+            this.dirty = true;
+        }
+        catch (IOException iox){
+            throw new IllegalStateException(iox);
+        }
+    }
+    /**
+     * Replace the cache file when it has changed.  Records for
+     * archives that no longer exist are dropped.
+     */
+    synchronized void store()
+        throws IOException
+    {
+        if (this.dirty){
+            this.dirty = false;
+
+            File dir = this.file.getAbsoluteFile().getParentFile();
+            if (null != dir && (!dir.isDirectory())){
+                dir.mkdirs();
+            }
+            File tmp = File.createTempFile(this.file.getName(),".tmp",dir);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())));
+                try {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+
+                    Map<String,Record> live = new java.util.TreeMap<>();
+                    for (Map.Entry<String,Record> ent : this.records.entrySet()){
+                        String path = ent.getKey();
+                        int nested = path.indexOf("!/");
+                        if (0 < nested){
+                            path = path.substring(0,nested);
+                        }
+                        if (new File(path).isFile()){
+                            live.put(ent.getKey(),ent.getValue());
+                        }
+                    }
+                    out.writeInt(live.size());
+                    for (Map.Entry<String,Record> ent : live.entrySet()){
+                        byte[] path = ent.getKey().getBytes(StandardCharsets.UTF_8);
+                        Record rec = ent.getValue();
+                        ByteBuffer data = rec.data.duplicate();
+                        byte[] pkgs = new byte[data.remaining()];
+                        data.get(pkgs);
+
+                        out.writeInt(4+path.length+8+8+pkgs.length);
+                        out.writeInt(path.length);
+                        out.write(path);
+                        out.writeLong(rec.size);
+                        out.writeLong(rec.mtime);
+                        out.write(pkgs);
+                    }
+                }
+                finally {
+                    out.close();
+                }
+                Files.move(tmp.toPath(),this.file.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally {
+                tmp.delete();
+            }
+        }
+    }
+    private void load()
+        throws IOException
+    {
+        if (this.file.isFile()){
+            MappedByteBuffer map;
+            FileChannel fc = FileChannel.open(this.file.toPath(),StandardOpenOption.READ);
+            try {
+                map = fc.map(FileChannel.MapMode.READ_ONLY,0,fc.size());
+            }
+            finally {
+                fc.close();
+            }
+
+            if (MAGIC == map.getInt() && VERSION == map.getInt()){
+                final int count = map.getInt();
+                for (int cc = 0; cc < count; cc++){
+                    final int length = map.getInt();
+                    final int next = map.position()+length;
+
+                    String path = Read(map);
+                    long size = map.getLong();
+                    long mtime = map.getLong();
+
+                    ByteBuffer data = map.slice();
+                    data.limit(next-map.position());
+
+                    this.records.put(path,new Record(size,mtime,data));
+
+                    map.position(next);
+                }
+            }
+            else {
+                this.dirty = true;
+            }
+        }
+        else {
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Write the package list of an archive record.
+     */
+    static void Encode(DataOutputStream out, Package[] list)
+        throws IOException
+    {
+        out.writeInt(list.length);
+        for (Package p : list){
+            Write(out,p.getEntry());
+            Write(out,p.getSpecificationTitle());
+            Write(out,p.getSpecificationVersion());
+            Write(out,p.getSpecificationVendor());
+            Write(out,p.getImplementationTitle());
+            Write(out,p.getImplementationVersion());
+            Write(out,p.getImplementationVendor());
+        }
+    }
+    /**
+     * Read the package list of an archive record.
+     * 
+     * @param data Record package list
+     * @param loader Package class loader
+     * @param src Archive manifest reference
+     */
+    static Package[] Decode(ByteBuffer data, Package.Owner loader, URL src){
+        final int count = data.getInt();
+        if (0 > count || (data.remaining()/28) < count){
+            /*
+             * Each package has seven strings of at least four bytes
+             */
+            throw new IllegalArgumentException("count "+count);
+        }
+        Package[] list = new Package[count];
+        for (int cc = 0; cc < count; cc++){
+
+            list[cc] = new Package(loader,src,Read(data),Read(data),Read(data),Read(data),Read(data),Read(data),Read(data));
+        }
+        return list;
+    }
+    private static String Read(ByteBuffer in){
+        final int length = in.getInt();
+        if (0 > length)
+            return null;
+        else if (in.remaining() < length)
+            throw new java.nio.BufferUnderflowException();
+        else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            return new String(bytes,StandardCharsets.UTF_8);
+        }
+    }
+    private static void Write(DataOutputStream out, String string)
+        throws IOException
+    {
+        if (null == string)
+            out.writeInt(-1);
+        else {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Archive package index.  The sealed packages of the archive
+ * manifest are written at build time into the archive entry {@link
+ * #NAME}, sorted by name, so that initialization reads the index in
+ * place of the manifest.
+ * 
+ * The index records the CRC-32 of the manifest entry, and is ignored
+ * when the manifest has changed.
+ * 
+ * <pre>
+ * index:   MAGIC VERSION crc:long count:int package*
+ * package: entry:str specTitle:str specVersion:str specVendor:str
+ *          implTitle:str implVersion:str implVendor:str
+ * str:     length:int (-1 for null) utf-8
+ * </pre>
+ * 
+ * @see PackageCache
+ */
+final class PackageIndex
+    extends Object
+{
+    final static String NAME = "META-INF/rpkg.idx";
+
+    final static int MAGIC = 0x52504b49;
+    final static int VERSION = 1;
+
+
+    /**
+     * @param zip Archive reader
+     * @param loader Package class loader
+     * @param src Archive manifest reference
+     * 
+     * @return Sealed packages of the archive index, or null for an
+     * archive without a current index
+     */
+    static Package[] Read(ZipBuffer zip, Package.Owner loader, URL src)
+        throws IOException
+    {
+        ByteBuffer idx = zip.get(NAME);
+        if (null != idx){
+            idx = idx.duplicate().order(ByteOrder.BIG_ENDIAN);
+            if (16 <= idx.remaining() && MAGIC == idx.getInt() && VERSION == idx.getInt()){
+
+                long crc = idx.getLong();
+                if (crc == zip.crc(JarFile.MANIFEST_NAME)){
+
+                    return PackageCache.Decode(idx,loader,src);
+                }
+            }
+        }
+        return null;
+    }
+    /**
+     * Replace an archive file with a copy having a current index.
+     * 
+     * @param archive Archive file
+     * 
+     * @return Number of sealed packages in the index, or -1 for an
+     * archive without a manifest
+     */
+    static int Write(File archive)
+        throws IOException
+    {
+        archive = archive.getAbsoluteFile();
+        File tmp = File.createTempFile(archive.getName(),".tmp",archive.getParentFile());
+        try {
+            int count;
+            JarFile jar = new JarFile(archive,false);
+            try {
+                ZipEntry ment = jar.getEntry(JarFile.MANIFEST_NAME);
+                Manifest man = jar.getManifest();
+                if (null == ment || null == man){
+
+                    return -1;
+                }
+                else {
+                    URL src = new URL("jar:"+archive.toURI().toURL().toExternalForm()+"!/"+JarFile.MANIFEST_NAME);
+
+                    Package[] list = Package.InitMF(null,src,man);
+
+                    Arrays.sort(list,Comparator.comparing((Package p) -> p.name));
+
+                    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                    DataOutputStream idx = new DataOutputStream(buf);
+                    idx.writeInt(MAGIC);
+                    idx.writeInt(VERSION);
+                    idx.writeLong(ment.getCrc());
+                    PackageCache.Encode(idx,list);
+                    idx.flush();
+
+                    ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())));
+                    try {
+                        Enumeration<? extends ZipEntry> entries = jar.entries();
+                        while (entries.hasMoreElements()){
+                            ZipEntry ent = entries.nextElement();
+                            if (!NAME.equals(ent.getName())){
+
+                                ZipEntry copy = new ZipEntry(ent);
+                                copy.setCompressedSize(-1L);
+                                out.putNextEntry(copy);
+                                InputStream in = jar.getInputStream(ent);
+                                try {
+                                    in.transferTo(out);
+                                }
+                                finally {
+                                    in.close();
+                                }
+                                out.closeEntry();
+                            }
+                        }
+                        out.putNextEntry(new ZipEntry(NAME));
+                        buf.writeTo(out);
+                        out.closeEntry();
+                    }
+                    finally {
+                        out.close();
+                    }
+                    count = list.length;
+                }
+            }
+            finally {
+                jar.close();
+            }
+            /*
+             * The archive is replaced by the complete copy, and is
+             * never written in place
+             */
+            Files.move(tmp.toPath(),archive.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+
+            return count;
+        }
+        finally {
+            tmp.delete();
+        }
+    }
+}
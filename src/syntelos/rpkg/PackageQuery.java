@@ -0,0 +1,374 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Attribute indexes of a package store, for queries of the form
+ * 
+ * <pre>
+ * query:  term ('&amp;' term)*
+ * term:   'prefix' '=' name
+ *         ('vendor'|'title') '=' value
+ *         ('spec.version'|'impl.version') ('='|'&lt;'|'&lt;='|'&gt;'|'&gt;=') version
+ * </pre>
+ * 
+ * For example, "vendor=Acme Corporation &amp; impl.version&lt;2.3".
+ * A value containing '&amp;' is quoted, as in "vendor=\"Smith &amp;
+ * Sons\"".
+ * 
+ * A prefix term matches the named package and the packages under
+ * it.  Vendor and title terms match the implementation or
+ * specification attribute, ignoring case and quotes.  Version terms
+ * compare numeric segments numerically, so that "2.10" follows
+ * "2.9", and "2.3" equals "2.3.0".
+ * 
+ * The indexes are sorted, so that each term is a logarithmic search
+ * followed by its matches.  They are built for a store on its first
+ * query, and are not modified after their construction.
+ * 
+ * @see Package#query(String)
+ */
+final class PackageQuery
+    extends Object
+{
+    /**
+     * Store packages, in class path order
+     */
+    private final Package[] list;
+    /**
+     * Store ordinals sorted by package name
+     */
+    private final int[] names;
+
+    private final NavigableMap<String,int[]> vendor, title, specVersion, implVersion;
+
+
+    PackageQuery(Package[] list){
+        super();
+        this.list = list;
+
+        Integer[] names = new Integer[list.length];
+        for (int cc = 0; cc < names.length; cc++){
+            names[cc] = cc;
+        }
+        Arrays.sort(names,Comparator.comparing((Integer cc) -> list[cc].name));
+        this.names = new int[names.length];
+        for (int cc = 0; cc < names.length; cc++){
+            this.names[cc] = names[cc];
+        }
+
+        Map<String,List<Integer>> vendor = new TreeMap<>();
+        Map<String,List<Integer>> title = new TreeMap<>();
+        Map<String,List<Integer>> specVersion = new TreeMap<>(VERSION);
+        Map<String,List<Integer>> implVersion = new TreeMap<>(VERSION);
+        for (int cc = 0; cc < list.length; cc++){
+            Package p = list[cc];
+
+            Add(vendor,Key(p.getImplementationVendor()),cc);
+            Add(vendor,Key(p.getSpecificationVendor()),cc);
+            Add(title,Key(p.getImplementationTitle()),cc);
+            Add(title,Key(p.getSpecificationTitle()),cc);
+            Add(specVersion,Unquote(p.getSpecificationVersion()),cc);
+            Add(implVersion,Unquote(p.getImplementationVersion()),cc);
+        }
+        this.vendor = Ordinals(vendor,new TreeMap<>());
+        this.title = Ordinals(title,new TreeMap<>());
+        this.specVersion = Ordinals(specVersion,new TreeMap<>(VERSION));
+        this.implVersion = Ordinals(implVersion,new TreeMap<>(VERSION));
+    }
+
+
+    /**
+     * @param expr Query expression
+     * 
+     * @return Packages matching every term, in class path order
+     * 
+     * @throws java.lang.IllegalArgumentException Invalid expression
+     */
+    Package[] query(String expr){
+        BitSet re = null;
+        for (String term : Terms(expr)){
+            term = term.trim();
+            if (0 < term.length()){
+                BitSet set = this.term(term);
+                if (null == re)
+                    re = set;
+                else
+                    re.and(set);
+            }
+        }
+        if (null == re){
+            throw new IllegalArgumentException("Empty query");
+        }
+        else {
+            Package[] list = new Package[re.cardinality()];
+            for (int ix = re.nextSetBit(0), cc = 0; 0 <= ix; ix = re.nextSetBit(ix+1)){
+                list[cc++] = this.list[ix];
+            }
+            return list;
+        }
+    }
+    /**
+     * @return Terms separated by '&amp;' outside of double quotes
+     * 
+     * @throws java.lang.IllegalArgumentException Unbalanced quote
+     */
+    static List<String> Terms(String expr){
+        List<String> terms = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int cc = 0, count = expr.length(); cc < count; cc++){
+            switch(expr.charAt(cc)){
+            case '"':
+                quoted = (!quoted);
+                break;
+            case '&':
+                if (!quoted){
+                    terms.add(expr.substring(start,cc));
+                    start = (cc + 1);
+                }
+                break;
+            }
+        }
+        if (quoted){
+            throw new IllegalArgumentException("Query quote in '"+expr+"'");
+        }
+        terms.add(expr.substring(start));
+        return terms;
+    }
+    private BitSet term(String term){
+        int op = 0;
+        while (op < term.length() && 0 > "=<>".indexOf(term.charAt(op))){
+            op += 1;
+        }
+        int value = op;
+        while (value < term.length() && 0 <= "=<>".indexOf(term.charAt(value))){
+            value += 1;
+        }
+        if (0 == op || op == term.length()){
+            throw new IllegalArgumentException("Query term '"+term+"'");
+        }
+        else {
+            String attr = term.substring(0,op).trim();
+            String operator = term.substring(op,value);
+            String operand = term.substring(value).trim();
+
+            BitSet set = new BitSet(this.list.length);
+            switch(attr){
+            case "prefix":
+                Equal(attr,operator);
+                this.prefix(Unquote(operand),set);
+                break;
+            case "vendor":
+                Equal(attr,operator);
+                Select(this.vendor,Key(operand),"=",set);
+                break;
+            case "title":
+                Equal(attr,operator);
+                Select(this.title,Key(operand),"=",set);
+                break;
+            case "spec.version":
+                Select(this.specVersion,Unquote(operand),operator,set);
+                break;
+            case "impl.version":
+                Select(this.implVersion,Unquote(operand),operator,set);
+                break;
+            default:
+                throw new IllegalArgumentException("Query attribute '"+attr+"'");
+            }
+            return set;
+        }
+    }
+    /**
+     * Packages named by the prefix, or under it.
+     */
+    private void prefix(String prefix, BitSet set){
+        if (prefix.endsWith(".")){
+            prefix = prefix.substring(0,prefix.length()-1);
+        }
+        final int[] names = this.names;
+        int lo = 0, hi = names.length;
+        while (lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if (0 > this.list[names[mid]].name.compareTo(prefix))
+                lo = mid+1;
+            else
+                hi = mid;
+        }
+        final int len = prefix.length();
+        for (int cc = lo; cc < names.length; cc++){
+            String name = this.list[names[cc]].name;
+            if (name.startsWith(prefix)){
+                if (name.length() == len || '.' == name.charAt(len)){
+                    set.set(names[cc]);
+                }
+            }
+            else {
+                break;
+            }
+        }
+    }
+
+    private static void Select(NavigableMap<String,int[]> index, String key, String operator, BitSet set){
+        Map<String,int[]> range;
+        switch(operator){
+        case "=":
+            int[] list = index.get(key);
+            if (null != list){
+                for (int cc : list){
+                    set.set(cc);
+                }
+            }
+            return;
+        case "<":
+            range = index.headMap(key,false);
+            break;
+        case "<=":
+            range = index.headMap(key,true);
+            break;
+        case ">":
+            range = index.tailMap(key,false);
+            break;
+        case ">=":
+            range = index.tailMap(key,true);
+            break;
+        default:
+            throw new IllegalArgumentException("Query operator '"+operator+"'");
+        }
+        for (int[] list : range.values()){
+            for (int cc : list){
+                set.set(cc);
+            }
+        }
+    }
+    private static void Equal(String attr, String operator){
+        if (!"=".equals(operator)){
+            throw new IllegalArgumentException("Query operator '"+operator+"' for '"+attr+"'");
+        }
+    }
+    private static void Add(Map<String,List<Integer>> index, String key, int cc){
+        if (null != key && 0 < key.length()){
+            List<Integer> list = index.get(key);
+            if (null == list){
+                list = new ArrayList<>(1);
+                index.put(key,list);
+            }
+            if (list.isEmpty() || cc != list.get(list.size()-1)){
+                list.add(cc);
+            }
+        }
+    }
+    private static NavigableMap<String,int[]> Ordinals(Map<String,List<Integer>> from, NavigableMap<String,int[]> to){
+        for (Map.Entry<String,List<Integer>> ent : from.entrySet()){
+            List<Integer> list = ent.getValue();
+            int[] ordinals = new int[list.size()];
+            for (int cc = 0; cc < ordinals.length; cc++){
+                ordinals[cc] = list.get(cc);
+            }
+            to.put(ent.getKey(),ordinals);
+        }
+        return to;
+    }
+    /**
+     * @return Attribute value without surrounding quotes, or null
+     */
+    static String Unquote(String value){
+        if (null != value){
+            value = value.trim();
+            if (1 < value.length() && '"' == value.charAt(0) && '"' == value.charAt(value.length()-1)){
+                value = value.substring(1,value.length()-1).trim();
+            }
+        }
+        return value;
+    }
+    private static String Key(String value){
+        value = Unquote(value);
+        if (null != value)
+            return value.toLowerCase();
+        else
+            return null;
+    }
+
+    /**
+     * Version order.  Segments separated by '.', '-' or '_' compare
+     * numerically when both are numeric, and otherwise as text.
+     * Missing numeric segments are zero, and a missing segment
+     * follows a qualifier, so that "2.3-beta" precedes "2.3".
+     */
+    final static Comparator<String> VERSION = new Comparator<String>(){
+            public int compare(String a, String b){
+                String[] sa = a.split("[-._]");
+                String[] sb = b.split("[-._]");
+                final int count = Math.max(sa.length,sb.length);
+                for (int cc = 0; cc < count; cc++){
+                    String ta = (cc < sa.length)?(sa[cc]):(null);
+                    String tb = (cc < sb.length)?(sb[cc]):(null);
+                    int re;
+                    if (null == ta)
+                        re = Missing(tb);
+                    else if (null == tb)
+                        re = -Missing(ta);
+                    else if (Numeric(ta) && Numeric(tb))
+                        re = new java.math.BigInteger(ta).compareTo(new java.math.BigInteger(tb));
+                    else if (Numeric(ta))
+                        re = 1;
+                    else if (Numeric(tb))
+                        re = -1;
+                    else
+                        re = ta.compareToIgnoreCase(tb);
+
+                    if (0 != re){
+                        return re;
+                    }
+                }
+                return 0;
+            }
+            /**
+             * @return Order of a missing segment relative to the
+             * segment
+             */
+            private int Missing(String segment){
+                if (Numeric(segment))
+                    return (0 == new java.math.BigInteger(segment).signum())?(0):(-1);
+                else
+                    return 1;
+            }
+            private boolean Numeric(String segment){
+                if (0 == segment.length())
+                    return false;
+                else {
+                    for (int cc = 0; cc < segment.length(); cc++){
+                        char ch = segment.charAt(cc);
+                        if ('0' > ch || '9' < ch){
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            }
+        };
+}
@@ -0,0 +1,380 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Package name search index.  Each name is indexed by its
+ * trigrams.  The candidates of a query are the names having the
+ * least frequent trigram of the query, and are matched and ranked.
+ * 
+ * <pre>
+ * 0  Name equal to the query
+ * 1  Name starting with the query
+ * 2  Query following a '.' in the name
+ * 3  Query elsewhere in the name
+ * 4  Query segments are prefixes of name segments, in order
+ * </pre>
+ * 
+ * For example, the query "acme.sub2" ranks "com.acme.m0.p5.sub21" in
+ * the last group.  Within a group, shorter names come first, and
+ * then class path order.  Names and queries compare ignoring case.
+ * 
+ * Names are numbered in the order of length and class path, so that
+ * candidates are visited in rank order within each group, and the
+ * search ends when no later candidate can rank above the results.
+ * A query shorter than three characters has no trigrams, and its
+ * candidates are every name.
+ * 
+ * The index is built for a store on its first search, and is not
+ * modified after its construction.
+ * 
+ * @see Package#search(String,int)
+ */
+final class PackageSearch
+    extends Object
+{
+    private final static Package[] NONE = new Package[0];
+
+    private final static int[] EMPTY = new int[0];
+
+    /**
+     * Store packages, by name number
+     */
+    private final Package[] list;
+    /**
+     * Lower case package names, by name number
+     */
+    private final String[] names;
+    /**
+     * Name numbers in the order of names
+     */
+    private final int[] sorted;
+    /**
+     * Name numbers by trigram, and by the first one and two
+     * characters of each name segment
+     */
+    private final Map<Long,int[]> grams;
+
+
+    PackageSearch(Package[] store){
+        super();
+        final int count = store.length;
+
+        Integer[] order = new Integer[count];
+        for (int cc = 0; cc < count; cc++){
+            order[cc] = cc;
+        }
+        Arrays.sort(order,Comparator.comparingInt((Integer cc) -> store[cc].name.length()).thenComparingInt((Integer cc) -> cc));
+
+        this.list = new Package[count];
+        this.names = new String[count];
+        for (int nn = 0; nn < count; nn++){
+            this.list[nn] = store[order[nn]];
+            this.names[nn] = this.list[nn].name.toLowerCase();
+        }
+
+        Integer[] sorted = new Integer[count];
+        for (int nn = 0; nn < count; nn++){
+            sorted[nn] = nn;
+        }
+        Arrays.sort(sorted,Comparator.comparing((Integer nn) -> this.names[nn]));
+        this.sorted = new int[count];
+        for (int cc = 0; cc < count; cc++){
+            this.sorted[cc] = sorted[cc];
+        }
+
+        Map<Long,Postings> postings = new java.util.HashMap<>();
+        for (int nn = 0; nn < count; nn++){
+            String name = this.names[nn];
+            for (int gx = 0, gz = (name.length()-2); gx < gz; gx++){
+
+                Add(postings,Gram(name,gx),nn);
+            }
+            for (int sx = 0, nz = name.length(); sx < nz; ){
+                int se = name.indexOf('.',sx);
+                if (0 > se){
+                    se = nz;
+                }
+                if (sx < se){
+                    Add(postings,Head(name,sx,1),nn);
+                    if (1 < (se-sx)){
+                        Add(postings,Head(name,sx,2),nn);
+                    }
+                }
+                sx = (se+1);
+            }
+        }
+        Map<Long,int[]> grams = new java.util.HashMap<>(postings.size()*2);
+        for (Map.Entry<Long,Postings> ent : postings.entrySet()){
+
+            grams.put(ent.getKey(),ent.getValue().list());
+        }
+        this.grams = grams;
+    }
+
+
+    /**
+     * @param query Name substring, or name segment prefixes
+     * @param limit Maximum number of results
+     * 
+     * @return Packages in rank order
+     */
+    Package[] search(String query, int limit){
+        query = query.trim().toLowerCase();
+        if (0 == query.length() || 1 > limit){
+            return NONE;
+        }
+        else {
+            /*
+             * Bounded selection of (rank, number) keys, with the
+             * lowest ranked result at the head of the queue.
+             */
+            PriorityQueue<Long> top = new PriorityQueue<Long>(limit+1,Comparator.reverseOrder());
+            /*
+             * Substring matches are candidates having every query
+             * trigram, or every name for a short query.
+             */
+            int[] candidates = this.candidates(query);
+            if (EMPTY != candidates){
+
+                this.select(query,candidates,top,limit,this.prefixed(query));
+            }
+            /*
+             * Segment matching is a weaker constraint than substring
+             * matching, so its candidates are selected by the
+             * trigrams or heads of the query segments.
+             */
+            if (0 <= query.indexOf('.')){
+                candidates = null;
+                for (String segment : query.split("\\.")){
+                    if (0 < segment.length()){
+                        int[] numbers = this.candidates(segment);
+                        if (null == numbers){
+                            numbers = this.grams.get(Head(segment,0,segment.length()));
+                            if (null == numbers){
+                                numbers = EMPTY;
+                            }
+                        }
+                        if (null == candidates || numbers.length < candidates.length){
+                            candidates = numbers;
+                        }
+                    }
+                }
+                this.segments(query,candidates,top,limit);
+            }
+            Package[] re = new Package[top.size()];
+            for (int rx = (re.length-1); 0 <= rx; rx--){
+                re[rx] = this.list[(int)(top.poll() & 0xFFFFFFFFL)];
+            }
+            return re;
+        }
+    }
+    /**
+     * Select substring matches (ranks zero to three).
+     * 
+     * @param prefixed A name starts with the query
+     */
+    private void select(String query, int[] candidates, PriorityQueue<Long> top, int limit, boolean prefixed){
+        final int qlen = query.length();
+        final int count = (null != candidates)?(candidates.length):(this.names.length);
+        for (int cx = 0; cx < count; cx++){
+            final int nn = (null != candidates)?(candidates[cx]):(cx);
+            final String name = this.names[nn];
+            if (top.size() == limit){
+                /*
+                 * Later candidates are not shorter, and only the
+                 * query itself ranks zero.
+                 */
+                long floor = (name.length() == qlen)?(0L):((prefixed)?(1L):(2L));
+                if (top.peek() < ((floor << 32) | nn)){
+                    return;
+                }
+            }
+            int rank = Rank(name,query);
+            if (0 <= rank){
+                Add(top,limit,(((long)rank << 32) | nn));
+            }
+        }
+    }
+    /**
+     * Select segment matches that are not substring matches (rank
+     * four).
+     */
+    private void segments(String query, int[] candidates, PriorityQueue<Long> top, int limit){
+        final int count = (null != candidates)?(candidates.length):(this.names.length);
+        for (int cx = 0; cx < count; cx++){
+            final int nn = (null != candidates)?(candidates[cx]):(cx);
+            final long key = ((4L << 32) | nn);
+            if (top.size() == limit && top.peek() < key){
+                return;
+            }
+            else {
+                final String name = this.names[nn];
+                if (0 > name.indexOf(query) && Segments(name,query)){
+                    Add(top,limit,key);
+                }
+            }
+        }
+    }
+    private static void Add(PriorityQueue<Long> top, int limit, long key){
+        if (top.size() < limit)
+            top.add(key);
+        else if (key < top.peek()){
+            top.poll();
+            top.add(key);
+        }
+    }
+    /**
+     * @param text Query text
+     * 
+     * @return Names having the least frequent trigram of the text,
+     * none for a trigram not found, or null for text without
+     * trigrams
+     */
+    private int[] candidates(String text){
+        int[] re = null;
+        for (int gx = 0, gz = (text.length()-2); gx < gz; gx++){
+            int[] numbers = this.grams.get(Gram(text,gx));
+            if (null == numbers)
+                return EMPTY;
+            else if (null == re || numbers.length < re.length){
+                re = numbers;
+            }
+        }
+        return re;
+    }
+    /**
+     * @return A name starts with the query
+     */
+    private boolean prefixed(String query){
+        final int[] sorted = this.sorted;
+        int lo = 0, hi = sorted.length;
+        while (lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if (0 > this.names[sorted[mid]].compareTo(query))
+                lo = mid+1;
+            else
+                hi = mid;
+        }
+        return (lo < sorted.length && this.names[sorted[lo]].startsWith(query));
+    }
+    /**
+     * @return Substring rank of the name for the query, or -1 for no
+     * match
+     */
+    private static int Rank(String name, String query){
+        int ix = name.indexOf(query);
+        if (0 == ix)
+            return (name.length() == query.length())?(0):(1);
+        else if (0 < ix){
+            do {
+                if ('.' == name.charAt(ix-1)){
+                    return 2;
+                }
+                ix = name.indexOf(query,ix+1);
+            }
+            while (0 < ix);
+
+            return 3;
+        }
+        else
+            return -1;
+    }
+    /**
+     * @return Each segment of the query is a prefix of a segment of
+     * the name, in order
+     */
+    private static boolean Segments(String name, String query){
+        final int nz = name.length(), qz = query.length();
+        int nx = 0, qx = 0;
+        while (qx < qz){
+            int qe = query.indexOf('.',qx);
+            if (0 > qe){
+                qe = qz;
+            }
+            final int ql = (qe-qx);
+            /*
+             * Find the next name segment having the query segment as
+             * a prefix.
+             */
+            while (true){
+                if (nx >= nz)
+                    return false;
+                else {
+                    int ne = name.indexOf('.',nx);
+                    if (0 > ne){
+                        ne = nz;
+                    }
+                    boolean match = ((ne-nx) >= ql && name.regionMatches(nx,query,qx,ql));
+                    nx = (ne+1);
+                    if (match){
+                        break;
+                    }
+                }
+            }
+            qx = (qe+1);
+        }
+        return true;
+    }
+    /**
+     * Name number list under construction, in ascending order.
+     */
+    private final static class Postings
+        extends Object
+    {
+        private int[] list = new int[4];
+        private int size;
+
+        void add(int cc){
+            if (0 == this.size || cc != this.list[this.size-1]){
+                if (this.size == this.list.length){
+                    this.list = Arrays.copyOf(this.list,this.size*2);
+                }
+                this.list[this.size++] = cc;
+            }
+        }
+        int[] list(){
+            return Arrays.copyOf(this.list,this.size);
+        }
+    }
+    private static void Add(Map<Long,Postings> postings, Long key, int nn){
+        Postings numbers = postings.get(key);
+        if (null == numbers){
+            numbers = new Postings();
+            postings.put(key,numbers);
+        }
+        numbers.add(nn);
+    }
+    /**
+     * @return Key of the first one or two characters of a segment
+     */
+    private static Long Head(String text, int ix, int len){
+        if (1 == len)
+            return Long.valueOf((1L << 48) | ((long)text.charAt(ix) << 16));
+        else
+            return Long.valueOf((1L << 48) | ((long)text.charAt(ix) << 16) | text.charAt(ix+1));
+    }
+    private static Long Gram(String text, int ix){
+        return Long.valueOf(((long)text.charAt(ix) << 32) | ((long)text.charAt(ix+1) << 16) | text.charAt(ix+2));
+    }
+}
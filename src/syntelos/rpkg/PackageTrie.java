@@ -0,0 +1,190 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+/**
+ * Package name segment tree for longest sealed prefix queries.  A
+ * query is one pass over the characters of a name, hashing each
+ * segment to probe its node, and allocates nothing.
+ * 
+ * A tree is built once for each package store, and is not modified
+ * after its construction.
+ * 
+ * @see Package#getPackage(String)
+ */
+final class PackageTrie
+    extends Object
+{
+    private final static Node[] NONE = new Node[0];
+
+    /**
+     * Tree node for one name segment.  The child nodes are in an open
+     * addressing table by segment hash code.
+     */
+    private final static class Node
+        extends Object
+    {
+        final String segment;
+
+        final int hash;
+
+        Package pkg;
+
+        Node[] children = NONE;
+
+        int count;
+
+
+        Node(String segment){
+            super();
+            this.segment = segment;
+            this.hash = segment.hashCode();
+        }
+
+
+        /**
+         * @param hash Hash code of the segment, as by {@link
+         * java.lang.String#hashCode()}
+         * 
+         * @return Child node for the segment of 'name' from 'start'
+         * (inclusive) to 'end' (exclusive), or null.
+         */
+        Node child(String name, int start, int end, int hash){
+            final Node[] children = this.children;
+            if (0 < children.length){
+                final int mask = (children.length-1);
+                final int length = (end - start);
+                for (int ix = (Spread(hash) & mask); ; ix = ((ix + 1) & mask)){
+                    Node node = children[ix];
+                    if (null == node)
+                        return null;
+                    else if (hash == node.hash && length == node.segment.length() &&
+                             name.regionMatches(start,node.segment,0,length))
+                    {
+                        return node;
+                    }
+                }
+            }
+            return null;
+        }
+        Node add(String segment){
+            if ((this.count+1)*2 > this.children.length){
+                /*
+                 * At most half full
+                 */
+                Node[] children = this.children;
+                this.children = new Node[Math.max(4,children.length*2)];
+                for (Node node : children){
+                    if (null != node){
+                        this.put(node);
+                    }
+                }
+            }
+            Node node = new Node(segment);
+            this.put(node);
+            this.count += 1;
+            return node;
+        }
+        private void put(Node node){
+            final Node[] children = this.children;
+            final int mask = (children.length-1);
+            int ix = (Spread(node.hash) & mask);
+            while (null != children[ix]){
+                ix = ((ix + 1) & mask);
+            }
+            children[ix] = node;
+        }
+    }
+
+
+    private final Node root = new Node("");
+
+
+    PackageTrie(Package[] list){
+        super();
+        for (Package p : list){
+
+            this.add(p);
+        }
+    }
+
+
+    /**
+     * @param name Package or class name
+     * 
+     * @param end Length of the package name in 'name'
+     * 
+     * @return Package with the longest name that is equal to, or a
+     * segment prefix of, the first 'end' characters of 'name'
+     */
+    Package longest(String name, int end){
+        Package found = null;
+        Node node = this.root;
+        int start = 0;
+        while (start < end){
+            /*
+             * Hash the segment while finding its end
+             */
+            int hash = 0, dot = start;
+            for (char ch; dot < end && '.' != (ch = name.charAt(dot)); dot++){
+                hash = (31*hash + ch);
+            }
+            node = node.child(name,start,dot,hash);
+            if (null == node)
+                break;
+            else {
+                if (null != node.pkg){
+                    found = node.pkg;
+                }
+                start = (dot + 1);
+            }
+        }
+        return found;
+    }
+    private void add(Package p){
+        final String name = p.name;
+        final int end = name.length();
+        Node node = this.root;
+        int start = 0;
+        while (start < end){
+            int dot = name.indexOf('.',start);
+            if (0 > dot){
+                dot = end;
+            }
+            String segment = name.substring(start,dot);
+            Node child = node.child(name,start,dot,segment.hashCode());
+            if (null == child){
+                /*
+                 * Segment strings are shared with the package name
+                 * lists.
+                 */
+                child = node.add(Package.Intern(segment));
+            }
+            node = child;
+            start = (dot + 1);
+        }
+        if (null == node.pkg){
+
+            node.pkg = p;
+        }
+    }
+    private static int Spread(int h){
+        h *= 0x9E3779B9;
+        return (h ^ (h >>> 16));
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Package store refresh from file system changes.  The directories
+ * of the archives (and exploded archive manifests) read by {@link
+ * Package#Init} are watched, and the manifest references of changed
+ * files are read again by {@link Package#Refresh}.
+ * 
+ * Changes are collected until the file system has been quiet for the
+ * delay, so that a deployment changing many files is one refresh, and
+ * for no longer than the maximum wait, so that continual changes do
+ * not defer the refresh indefinitely.  A failed refresh is recorded
+ * by {@link Metrics}, and the watch continues.
+ * 
+ * The watch is enabled by the system property "syntelos.rpkg.watch",
+ * with the delay in milliseconds from the system property
+ * "syntelos.rpkg.watch.delay" (default 250), and the maximum wait in
+ * milliseconds from the system property "syntelos.rpkg.watch.max"
+ * (default 5000).
+ * 
+ * @see Package.Listener
+ */
+final class PackageWatch
+    extends Object
+    implements Runnable
+{
+    /**
+     * Watch enabled by system property "syntelos.rpkg.watch", or
+     * null.
+     */
+    final static PackageWatch Instance = (Boolean.getBoolean("syntelos.rpkg.watch"))?(new PackageWatch(Long.getLong("syntelos.rpkg.watch.delay",250L),Long.getLong("syntelos.rpkg.watch.max",5000L))):(null);
+
+    /**
+     * Manifest reference read by a package class loader.
+     */
+    final static class Source
+        extends Object
+    {
+        final Package.Owner owner;
+        final URL src;
+
+        Source(Package.Owner owner, URL src){
+            super();
+            this.owner = owner;
+            this.src = src;
+        }
+    }
+
+
+    public final long delay, maximum;
+
+    private final Map<Path,List<Source>> files = new java.util.HashMap<>();
+
+    private final Set<Path> directories = new java.util.HashSet<>();
+
+    private WatchService service;
+
+
+    private PackageWatch(long delay, long maximum){
+        super();
+        this.delay = Math.max(0L,delay);
+        this.maximum = Math.max(this.delay,maximum);
+    }
+
+
+    /**
+     * Watch the file of a manifest reference, when it has one.
+     * 
+     * @param owner Package class loader
+     * 
+     * @param src Manifest reference
+     */
+    synchronized void register(Package.Owner owner, URL src){
+        File file;
+        Package.Archive archive = Package.InitArchive(src);
+        if (null != archive)
+            file = archive.file;
+        else
+            file = Package.InitDirectory(src);
+
+        if (null != file){
+            Path path = file.getAbsoluteFile().toPath();
+            Path dir = path.getParent();
+            if (null != dir){
+                try {
+                    if (null == this.service){
+                        this.service = FileSystems.getDefault().newWatchService();
+
+                        Thread t = new Thread(this,"syntelos.rpkg.Watch");
+                        t.setDaemon(true);
+                        t.start();
+                    }
+                    if (this.directories.add(dir)){
+
+                        dir.register(this.service,StandardWatchEventKinds.ENTRY_CREATE,StandardWatchEventKinds.ENTRY_MODIFY,StandardWatchEventKinds.ENTRY_DELETE);
+                    }
+                    List<Source> list = this.files.get(path);
+                    if (null == list){
+                        list = new ArrayList<>(1);
+                        this.files.put(path,list);
+                    }
+                    list.add(new Source(owner,src));
+                }
+                catch (IOException iox){
+                    this.directories.remove(dir);
+
+                    Metrics.Instance.failed(src,iox);
+                }
+            }
+        }
+    }
+    /**
+     * Drop the sources of collected class loaders.
+     */
+    synchronized void expunge(Set<Package.Owner> dead){
+        java.util.Iterator<List<Source>> lists = this.files.values().iterator();
+        while (lists.hasNext()){
+            List<Source> list = lists.next();
+            list.removeIf((s) -> dead.contains(s.owner));
+            if (list.isEmpty()){
+                lists.remove();
+            }
+        }
+    }
+    /**
+     * Collect changes until quiet, and refresh the package store.
+     */
+    public void run(){
+        final WatchService service;
+        synchronized(this){
+            service = this.service;
+        }
+        try {
+            while (true){
+                Set<Path> changed = new java.util.LinkedHashSet<>();
+                boolean overflow = this.collect(service.take(),changed);
+                /*
+                 * Debounce, until the maximum wait
+                 */
+                final long deadline = (System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(this.maximum));
+                while (true){
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline-System.nanoTime());
+                    if (0L > remaining)
+                        break;
+                    else {
+                        WatchKey key = service.poll(Math.min(this.delay,remaining),TimeUnit.MILLISECONDS);
+                        if (null == key)
+                            break;
+                        else
+                            overflow |= this.collect(key,changed);
+                    }
+                }
+                List<Source> sources = new ArrayList<>();
+                synchronized(this){
+                    if (overflow){
+                        for (List<Source> list : this.files.values()){
+                            sources.addAll(list);
+                        }
+                    }
+                    else {
+                        for (Path path : changed){
+                            List<Source> list = this.files.get(path);
+                            if (null != list){
+                                sources.addAll(list);
+                            }
+                        }
+                    }
+                }
+                if (!sources.isEmpty()){
+                    try {
+                        Package.Refresh(sources);
+                    }
+                    catch (RuntimeException exc){
+                        /*
+                         * Retain the watch
+                         */
+                        Metrics.Instance.failed(exc);
+                    }
+                }
+            }
+        }
+        catch (InterruptedException|ClosedWatchServiceException exc){
+            return;
+        }
+    }
+    /**
+     * @return Events were lost
+     */
+    private boolean collect(WatchKey key, Set<Path> changed){
+        boolean overflow = false;
+        Path dir = (Path)key.watchable();
+        for (WatchEvent<?> ev : key.pollEvents()){
+            if (StandardWatchEventKinds.OVERFLOW == ev.kind())
+                overflow = true;
+            else {
+                changed.add(dir.resolve((Path)ev.context()));
+            }
+        }
+        if (!key.reset()){
+            synchronized(this){
+                this.directories.remove(dir);
+            }
+        }
+        return overflow;
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * Resource name membership filter (Bloom filter) over the archives
+ * of a part of a class loader chain.  The archive central directories
+ * are read once.  A negative answer is definite; a positive answer
+ * may be false.
+ * 
+ * The index records the class paths of the indexed class loaders,
+ * held weakly, and the size and modification time of the archives
+ * read, so that a changed chain part is detected by {@link
+ * #current()}.
+ * 
+ * @see ChainClassLoaderLink
+ */
+final class ResourceIndex
+    extends Object
+{
+    /**
+     * The part of a class loader chain from 'side' (inclusive) to
+     * the first shared ancestor (exclusive) is indexed when each of
+     * its loaders is a {@link java.net.URLClassLoader} over archive
+     * files.
+     * 
+     * @param side Class loader chain terminal
+     * 
+     * @param shared Class loaders excluded from the index
+     * 
+     * @return Index, or null for a chain part that cannot be indexed
+     */
+    static ResourceIndex Of(ClassLoader side, Set<ClassLoader> shared){
+        List<URLClassLoader> loaders = new ArrayList<>();
+        List<URL[]> classpaths = new ArrayList<>();
+        List<File> archives = new ArrayList<>();
+        for (ClassLoader p = side; null != p && (!shared.contains(p)); p = p.getParent()){
+            if (IsIndexable(p)){
+                URL[] classpath = ((URLClassLoader)p).getURLs();
+                for (URL url : classpath){
+                    File file = Archive(url);
+                    if (null != file)
+                        archives.add(file);
+                    else
+                        return null;
+                }
+                loaders.add((URLClassLoader)p);
+                classpaths.add(classpath);
+            }
+            else {
+                return null;
+            }
+        }
+
+        List<String> names = new ArrayList<>();
+        Set<File> visited = new java.util.LinkedHashSet<>();
+        try {
+            for (File file : archives){
+
+                Read(file,names,visited);
+            }
+        }
+        catch (IOException iox){
+            return null;
+        }
+        return new ResourceIndex(names,loaders,classpaths,visited);
+    }
+
+
+    private final static int HASHES = 4;
+
+    private final long[] bits;
+    private final int mask;
+    /**
+     * Indexed class loaders, and their class paths when indexed
+     */
+    private final List<Reference<URLClassLoader>> loaders;
+    private final URL[][] classpaths;
+    /**
+     * Archives read, with size and modification time when read
+     */
+    private final File[] files;
+    private final long[] sizes, mtimes;
+
+
+    private ResourceIndex(List<String> names, List<URLClassLoader> loaders, List<URL[]> classpaths, Set<File> files){
+        super();
+        this.loaders = new ArrayList<>(loaders.size());
+        for (URLClassLoader loader : loaders){
+            this.loaders.add(new WeakReference<>(loader));
+        }
+        this.classpaths = classpaths.toArray(new URL[classpaths.size()][]);
+        this.files = files.toArray(new File[files.size()]);
+        this.sizes = new long[this.files.length];
+        this.mtimes = new long[this.files.length];
+        for (int cc = 0; cc < this.files.length; cc++){
+            this.sizes[cc] = this.files[cc].length();
+            this.mtimes[cc] = this.files[cc].lastModified();
+        }
+        int size = 64;
+        final int bound = Math.max(64,names.size()*10);
+        while (size < bound && 0 < size){
+            size <<= 1;
+        }
+        if (0 >= size){
+            size = (1 << 30);
+        }
+        this.bits = new long[size>>>6];
+        this.mask = (size-1);
+
+        for (String name : names){
+            int h1 = name.hashCode();
+            int h2 = Mix(h1);
+            for (int cc = 0; cc < HASHES; cc++){
+                int bit = ((h1 + (cc*h2)) & this.mask);
+                this.bits[bit>>>6] |= (1L << bit);
+            }
+        }
+    }
+
+
+    /**
+     * @param name Resource name
+     * 
+     * @return False when the indexed archives do not contain the
+     * named resource
+     */
+    boolean contains(String name){
+        int h1 = name.hashCode();
+        int h2 = Mix(h1);
+        for (int cc = 0; cc < HASHES; cc++){
+            int bit = ((h1 + (cc*h2)) & this.mask);
+            if (0L == (this.bits[bit>>>6] & (1L << bit))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The indexed class loaders have not been collected, and
+     * their class paths and the archives read are unchanged
+     */
+    boolean current(){
+        for (int cc = 0, count = this.loaders.size(); cc < count; cc++){
+            URLClassLoader loader = this.loaders.get(cc).get();
+            if (null == loader || (!java.util.Arrays.equals(this.classpaths[cc],loader.getURLs()))){
+                return false;
+            }
+        }
+        for (int cc = 0; cc < this.files.length; cc++){
+            File file = this.files[cc];
+            if (this.sizes[cc] != file.length() || this.mtimes[cc] != file.lastModified()){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int Mix(int h){
+        h *= 0x9E3779B9;
+        h ^= (h >>> 16);
+        return (h | 1);
+    }
+    /**
+     * The resource lookup of a URL class loader subclass may differ
+     * from its class path.
+     */
+    private static boolean IsIndexable(ClassLoader loader){
+        if (loader instanceof URLClassLoader){
+            try {
+                Class<?> c = loader.getClass();
+                return (URLClassLoader.class == c.getMethod("findResource",String.class).getDeclaringClass() &&
+                        URLClassLoader.class == c.getMethod("findResources",String.class).getDeclaringClass());
+            }
+            catch (NoSuchMethodException exc){
+                return false;
+            }
+        }
+        else {
+            return false;
+        }
+    }
+    /**
+     * @return Archive file, or null for a directory or other kind of
+     * class path element
+     */
+    private static File Archive(URL url){
+        if ("file".equals(url.getProtocol())){
+            try {
+                File file = new File(url.toURI());
+                if (file.isFile())
+                    return file;
+                else
+                    return null;
+            }
+            catch (URISyntaxException|IllegalArgumentException exc){
+                return null;
+            }
+        }
+        else {
+            return null;
+        }
+    }
+    /**
+     * Read the names in an archive central directory, including the
+     * archives on its manifest class path.  Versioned entries of a
+     * multi-release archive are also named without the version
+     * prefix.
+     */
+    private static void Read(File file, List<String> names, Set<File> visited)
+        throws IOException
+    {
+        if (visited.add(file.getAbsoluteFile())){
+
+            if (!file.isFile()){
+                /*
+                 * Missing class path archives are ignored by the
+                 * class loader
+                 */
+                return;
+            }
+            List<File> classpath = null;
+
+            JarFile jar = new JarFile(file,false);
+            try {
+                Enumeration<? extends ZipEntry> entries = jar.entries();
+                while (entries.hasMoreElements()){
+                    String name = entries.nextElement().getName();
+                    names.add(name);
+
+                    if (name.startsWith("META-INF/versions/")){
+                        int slash = name.indexOf('/',18);
+                        if (0 < slash && slash < (name.length()-1)){
+
+                            names.add(name.substring(slash+1));
+                        }
+                    }
+                }
+
+                Manifest man = jar.getManifest();
+                if (null != man){
+                    String cp = man.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+                    if (null != cp){
+                        classpath = new ArrayList<>();
+                        URI base = file.toURI();
+                        StringTokenizer strtok = new StringTokenizer(cp," ");
+                        while (strtok.hasMoreTokens()){
+                            try {
+                                URI ref = base.resolve(strtok.nextToken());
+                                if ("file".equals(ref.getScheme()))
+                                    classpath.add(new File(ref));
+                                else
+                                    throw new IOException("Class-Path "+ref);
+                            }
+                            catch (IllegalArgumentException exc){
+                                throw new IOException(exc);
+                            }
+                        }
+                    }
+                }
+            }
+            finally {
+                jar.close();
+            }
+
+            if (null != classpath){
+                for (File ref : classpath){
+                    if (ref.isDirectory())
+                        throw new IOException("Class-Path "+ref);
+                    else
+                        Read(ref,names,visited);
+                }
+            }
+        }
+    }
+}
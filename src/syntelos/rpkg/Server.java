@@ -0,0 +1,322 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Package store query server over a unix domain socket.  The server
+ * initializes once, and answers requests from the warm store.
+ * 
+ * Each request is one line, and each response is a sequence of
+ * lines terminated by a line containing only ".".  A connection may
+ * carry any number of requests.
+ * 
+ * <pre>
+ * ping                      "ok"
+ * format manifest|json      Response format of the connection
+ * lookup &lt;name&gt;             Package having the longest prefix of name,
+ *                           then name search results, as {@link Main#Search}
+ * list [&lt;prefix&gt;]           Packages, optionally by name prefix
+ * query &lt;expr&gt;              Packages matching an attribute query
+ * </pre>
+ * 
+ * A response line starting with "error " reports a failed request.
+ * 
+ * @see Main
+ */
+public final class Server
+    extends Object
+    implements Runnable, Closeable
+{
+    /**
+     * Response terminal
+     */
+    public final static String END = ".";
+    /**
+     * Bound on the number of lookup search results
+     */
+    public final static int LIMIT = 10;
+
+
+    public final Path path;
+
+    private final ServerSocketChannel channel;
+    /**
+     * Identity of the socket file bound by this server
+     */
+    private final Object file;
+
+    private final ExecutorService pool;
+
+
+    /**
+     * Bind to the socket path, replacing a stale socket file.
+     * 
+     * @throws java.nio.file.FileAlreadyExistsException The path
+     * exists, and is not a socket file, or is the socket of a running
+     * server
+     */
+    public Server(Path path)
+        throws IOException
+    {
+        super();
+        this.path = path;
+
+        Stale(path);
+
+        this.channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        this.channel.bind(UnixDomainSocketAddress.of(path));
+        this.file = Files.readAttributes(path,BasicFileAttributes.class,LinkOption.NOFOLLOW_LINKS).fileKey();
+
+        this.pool = Executors.newCachedThreadPool((r) -> {
+                Thread t = new Thread(r,"syntelos.rpkg.Server");
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+
+    /**
+     * Accept connections until closed.
+     */
+    public void run(){
+        try {
+            while (true){
+                final SocketChannel client = this.channel.accept();
+
+                this.pool.execute(() -> Serve(client));
+            }
+        }
+        catch (ClosedChannelException exc){
+        }
+        catch (IOException iox){
+            iox.printStackTrace();
+        }
+    }
+    /**
+     * Close the socket, and remove the socket file when it has not
+     * been replaced.
+     */
+    public void close()
+        throws IOException
+    {
+        try {
+            this.channel.close();
+            this.pool.shutdownNow();
+        }
+        finally {
+            try {
+                BasicFileAttributes attr = Files.readAttributes(this.path,BasicFileAttributes.class,LinkOption.NOFOLLOW_LINKS);
+                if (attr.isOther() && java.util.Objects.equals(this.file,attr.fileKey())){
+
+                    Files.delete(this.path);
+                }
+            }
+            catch (java.nio.file.NoSuchFileException exc){
+            }
+        }
+    }
+    /**
+     * Remove a socket file that no server is accepting on.
+     * 
+     * @throws java.nio.file.FileAlreadyExistsException The path is
+     * not a socket file, or a server is accepting on it
+     */
+    private static void Stale(Path path)
+        throws IOException
+    {
+        BasicFileAttributes attr;
+        try {
+            attr = Files.readAttributes(path,BasicFileAttributes.class,LinkOption.NOFOLLOW_LINKS);
+        }
+        catch (java.nio.file.NoSuchFileException exc){
+            return;
+        }
+        if (!attr.isOther()){
+            throw new FileAlreadyExistsException(path.toString(),null,"not a socket");
+        }
+        else {
+            try {
+                SocketChannel.open(UnixDomainSocketAddress.of(path)).close();
+            }
+            catch (IOException refused){
+                /*
+                 * Stale socket
+                 */
+                Files.delete(path);
+                return;
+            }
+            throw new FileAlreadyExistsException(path.toString(),null,"server running");
+        }
+    }
+
+    /**
+     * Answer the requests of one connection.
+     */
+    private static void Serve(SocketChannel client){
+        try {
+            try {
+                BufferedReader in = new BufferedReader(Channels.newReader(client,StandardCharsets.UTF_8));
+                PrintWriter out = new PrintWriter(Channels.newWriter(client,StandardCharsets.UTF_8),false);
+                boolean json = false;
+                String request;
+                while (null != (request = in.readLine())){
+                    request = request.trim();
+                    if (0 < request.length()){
+                        int sp = request.indexOf(' ');
+                        String command = (0 < sp)?(request.substring(0,sp)):(request);
+                        String operand = (0 < sp)?(request.substring(sp+1).trim()):(null);
+                        try {
+                            json = Serve(out,command,operand,json);
+                        }
+                        catch (RuntimeException exc){
+                            /*
+                             * Report to the client, and record
+                             */
+                            Metrics.Instance.failed(exc);
+
+                            out.printf("error %s%n",exc);
+                        }
+                        out.println(END);
+                        out.flush();
+                    }
+                }
+            }
+            finally {
+                client.close();
+            }
+        }
+        catch (IOException exc){
+            /*
+             * Client disconnect
+             */
+        }
+    }
+    /**
+     * Answer one request.
+     * 
+     * @return Response format is json
+     */
+    private static boolean Serve(PrintWriter out, String command, String operand, boolean json){
+        switch(command){
+        case "ping":
+            out.println("ok");
+            break;
+        case "format":
+            if ("json".equals(operand)){
+                json = true;
+                out.println("ok");
+            }
+            else if ("manifest".equals(operand)){
+                json = false;
+                out.println("ok");
+            }
+            else {
+                out.printf("error unrecognized format '%s'%n",operand);
+            }
+            break;
+        case "lookup":
+            if (null == operand)
+                out.println("error lookup requires name");
+            else if (!Main.Search(out,operand,LIMIT,json)){
+                out.printf("error package '%s' not found%n",operand);
+            }
+            break;
+        case "list":
+            Package.List(out,operand,null,json);
+            break;
+        case "query":
+            if (null == operand)
+                out.println("error query requires expression");
+            else {
+                try {
+                    Main.Query(out,operand,json);
+                }
+                catch (IllegalArgumentException exc){
+                    out.printf("error %s%n",exc.getMessage());
+                }
+            }
+            break;
+        default:
+            out.printf("error unrecognized request '%s'%n",command);
+            break;
+        }
+        return json;
+    }
+
+    /**
+     * Send requests to a server, and copy the responses to the
+     * output.
+     * 
+     * @param path Server socket
+     * @param requests Request lines
+     * @param out Response lines
+     * 
+     * @return No response reported an error
+     */
+    public static boolean Request(Path path, Iterable<String> requests, PrintWriter out)
+        throws IOException
+    {
+        boolean re = true;
+        SocketChannel server = SocketChannel.open(UnixDomainSocketAddress.of(path));
+        try {
+            BufferedReader in = new BufferedReader(Channels.newReader(server,StandardCharsets.UTF_8));
+            PrintWriter req = new PrintWriter(Channels.newWriter(server,StandardCharsets.UTF_8),false);
+            for (String request : requests){
+                request = request.trim();
+                if (0 < request.length()){
+                    req.println(request);
+                    req.flush();
+
+                    String line;
+                    while (null != (line = in.readLine()) && (!END.equals(line))){
+                        if (line.startsWith("error ")){
+                            re = false;
+                        }
+                        out.println(line);
+                    }
+                    if (null == line){
+                        throw new IOException("Connection closed by "+path);
+                    }
+                }
+            }
+        }
+        finally {
+            server.close();
+        }
+        return re;
+    }
+}
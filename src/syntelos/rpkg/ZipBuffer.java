@@ -0,0 +1,444 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Archive entry reader.  The end of central directory record and the
+ * central directory are read from the archive file, and the central
+ * directory is searched in place.  An entry is read from the file when
+ * requested, and inflated when deflated.  An archive stored in an
+ * archive is read from the outer archive file in the same way.
+ * 
+ * The archive file is open until {@link #close()}, and no part of it
+ * is mapped.
+ * 
+ * ZIP64 archives are not supported, and malformed archives are not
+ * read.  Both are reported with an exception so that the caller may
+ * use the java archive classes.
+ */
+final class ZipBuffer
+    extends Object
+    implements Closeable
+{
+    /**
+     * Open an archive file.
+     * 
+     * @param archive Archive file
+     * 
+     * @return Archive reader, to be closed by the caller
+     */
+    static ZipBuffer Open(File archive)
+        throws IOException
+    {
+        FileChannel fc = FileChannel.open(archive.toPath(),StandardOpenOption.READ);
+        try {
+            return new ZipBuffer(fc,null,0L,fc.size());
+        }
+        catch (IOException|RuntimeException exc){
+            fc.close();
+            throw exc;
+        }
+    }
+    /**
+     * Open an archive nested in an archive file.
+     * 
+     * @param archive Archive file
+     * @param nested Entry names of nested archives, outermost first
+     * 
+     * @return Reader of the innermost archive, to be closed by the
+     * caller
+     */
+    static ZipBuffer Open(File archive, String[] nested)
+        throws IOException
+    {
+        ZipBuffer zip = Open(archive);
+        try {
+            for (String name : nested){
+                ZipBuffer entry = zip.nested(name);
+                if (null == entry)
+                    throw new IOException(archive.getPath()+"!/"+name);
+                else {
+                    if (null == entry.channel){
+                        zip.close();
+                    }
+                    zip = entry;
+                }
+            }
+            return zip;
+        }
+        catch (IOException|RuntimeException exc){
+            zip.close();
+            throw exc;
+        }
+    }
+    /**
+     * @param archive Archive file
+     * 
+     * @return Archive manifest, or null
+     */
+    static Manifest Manifest(File archive)
+        throws IOException
+    {
+        ZipBuffer zip = Open(archive);
+        try {
+            return zip.manifest();
+        }
+        finally {
+            zip.close();
+        }
+    }
+
+    private final static int EOCD = 0x06054b50;
+    private final static int CEN = 0x02014b50;
+    private final static int LOC = 0x04034b50;
+    /**
+     * Bound on an archive comment
+     */
+    private final static int COMMENT = 0xFFFF;
+
+    /**
+     * Archive file, or null for an archive buffer
+     */
+    private final FileChannel channel;
+    /**
+     * Archive buffer, or null for an archive file
+     */
+    private final ByteBuffer zip;
+    /**
+     * Position and size of the archive in the file or buffer
+     */
+    private final long base, size;
+    /**
+     * Central directory
+     */
+    private final ByteBuffer cd;
+
+    private final int cdCount;
+
+
+    /**
+     * @param zip Archive content
+     */
+    ZipBuffer(ByteBuffer zip)
+        throws IOException
+    {
+        this(null,zip.duplicate(),0L,zip.remaining());
+    }
+    private ZipBuffer(FileChannel channel, ByteBuffer zip, long base, long size)
+        throws IOException
+    {
+        super();
+        this.channel = channel;
+        this.zip = (null != zip)?(zip.slice().order(ByteOrder.LITTLE_ENDIAN)):(null);
+        this.base = base;
+        this.size = size;
+        try {
+            if (22 > size)
+                throw new IOException("End of central directory not found");
+            else {
+                final int tail = (int)Math.min(size,22+COMMENT);
+                ByteBuffer end = this.read(size-tail,tail);
+                for (int eocd = (tail-22); 0 <= eocd; eocd--){
+
+                    if (EOCD == end.getInt(eocd)){
+                        int count = U16(end,eocd+10);
+                        long cdSize = U32(end,eocd+12);
+                        long offset = U32(end,eocd+16);
+                        if (0xFFFF == count || 0xFFFFFFFFL == cdSize || 0xFFFFFFFFL == offset)
+                            throw new IOException("ZIP64");
+                        else if ((offset+cdSize) > (size-tail+eocd))
+                            throw new IOException("Central directory");
+                        else {
+                            this.cdCount = count;
+                            this.cd = this.read(offset,(int)cdSize);
+                            return;
+                        }
+                    }
+                }
+                throw new IOException("End of central directory not found");
+            }
+        }
+        catch (IndexOutOfBoundsException|BufferUnderflowException|IllegalArgumentException exc){
+            throw new IOException("Malformed archive",exc);
+        }
+    }
+
+
+    /**
+     * Close the archive file.
+     */
+    public void close()
+        throws IOException
+    {
+        if (null != this.channel){
+            this.channel.close();
+        }
+    }
+    /**
+     * @return Archive manifest, or null
+     */
+    Manifest manifest()
+        throws IOException
+    {
+        ByteBuffer man = this.get("META-INF/MANIFEST.MF");
+        if (null != man)
+            return new Manifest(new Input(man));
+        else
+            return null;
+    }
+    /**
+     * @param name Entry name
+     * 
+     * @return Entry content, or null
+     */
+    ByteBuffer get(String name)
+        throws IOException
+    {
+        try {
+            int p = this.find(name);
+            if (0 > p)
+                return null;
+            else
+                return this.data(U16(this.cd,p+10),U32(this.cd,p+20),U32(this.cd,p+24),U32(this.cd,p+42));
+        }
+        catch (IndexOutOfBoundsException|BufferUnderflowException|IllegalArgumentException exc){
+            throw new IOException("Malformed archive",exc);
+        }
+    }
+    /**
+     * @param name Entry name
+     * 
+     * @return Reader of an archive stored or deflated in this archive,
+     * or null.  A stored archive is read from this archive file, and
+     * is closed with this reader.
+     */
+    ZipBuffer nested(String name)
+        throws IOException
+    {
+        try {
+            int p = this.find(name);
+            if (0 > p)
+                return null;
+            else {
+                final int method = U16(this.cd,p+10);
+                final long csize = U32(this.cd,p+20), usize = U32(this.cd,p+24), local = U32(this.cd,p+42);
+                if (0 == method && null != this.channel)
+                    return new ZipBuffer(this.channel,null,this.base+this.start(csize,usize,local),csize);
+                else
+                    return new ZipBuffer(this.data(method,csize,usize,local));
+            }
+        }
+        catch (IndexOutOfBoundsException|BufferUnderflowException|IllegalArgumentException exc){
+            throw new IOException("Malformed archive",exc);
+        }
+    }
+    /**
+     * @param name Entry name
+     * 
+     * @return Entry CRC-32 from the central directory, or -1
+     */
+    long crc(String name)
+        throws IOException
+    {
+        try {
+            int p = this.find(name);
+            if (0 > p)
+                return -1L;
+            else
+                return U32(this.cd,p+16);
+        }
+        catch (IndexOutOfBoundsException|BufferUnderflowException|IllegalArgumentException exc){
+            throw new IOException("Malformed archive",exc);
+        }
+    }
+    /**
+     * @return Central directory offset of the named entry, or -1
+     */
+    private int find(String name)
+        throws IOException
+    {
+        final byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer cd = this.cd;
+        int p = 0;
+        for (int cc = 0; cc < this.cdCount; cc++){
+            if (CEN != cd.getInt(p))
+                throw new IOException("Central directory");
+            else {
+                int nlen = U16(cd,p+28);
+                if (key.length == nlen && Equals(cd,p+46,key)){
+
+                    return p;
+                }
+                p += (46 + nlen + U16(cd,p+30) + U16(cd,p+32));
+            }
+        }
+        return -1;
+    }
+    /**
+     * @return Archive position of entry data
+     */
+    private long start(long csize, long usize, long local)
+        throws IOException
+    {
+        if (0xFFFFFFFFL == csize || 0xFFFFFFFFL == usize || 0xFFFFFFFFL == local)
+            throw new IOException("ZIP64");
+        else {
+            ByteBuffer loc = this.read(local,30);
+            if (LOC != loc.getInt(0))
+                throw new IOException("Local header");
+            else {
+                long start = (local + 30 + U16(loc,26) + U16(loc,28));
+                if ((start+csize) > this.size)
+                    throw new IOException("Entry data");
+                else
+                    return start;
+            }
+        }
+    }
+    private ByteBuffer data(int method, long csize, long usize, long local)
+        throws IOException
+    {
+        ByteBuffer data = this.read(this.start(csize,usize,local),(int)csize);
+
+        switch(method){
+        case 0:
+            return data;
+        case 8:
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data);
+                byte[] re = new byte[(int)usize];
+                int count = 0;
+                while (count < re.length && (!inflater.finished())){
+                    int read = inflater.inflate(re,count,re.length-count);
+                    if (0 == read && (inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    else
+                        count += read;
+                }
+                if (count == re.length)
+                    return ByteBuffer.wrap(re);
+                else
+                    throw new IOException("Inflate");
+            }
+            catch (DataFormatException exc){
+                throw new IOException(exc);
+            }
+            finally {
+                inflater.end();
+            }
+        default:
+            throw new IOException("Compression method "+method);
+        }
+    }
+    /**
+     * @param position Archive position
+     * @param length Number of bytes
+     * 
+     * @return Archive content, little endian
+     */
+    private ByteBuffer read(long position, int length)
+        throws IOException
+    {
+        if (0 > position || 0 > length || (position+length) > this.size)
+            throw new IOException("Archive bounds");
+        else if (null != this.zip){
+            ByteBuffer re = this.zip.duplicate();
+            re.limit((int)position+length);
+            re.position((int)position);
+            return re.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        else {
+            ByteBuffer re = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            long at = (this.base+position);
+            while (re.hasRemaining()){
+                if (0 > this.channel.read(re,at+re.position())){
+                    throw new IOException("Archive truncated");
+                }
+            }
+            re.flip();
+            return re;
+        }
+    }
+    private static boolean Equals(ByteBuffer buf, int p, byte[] key){
+        for (int cc = 0; cc < key.length; cc++){
+            if (key[cc] != buf.get(p+cc)){
+                return false;
+            }
+        }
+        return true;
+    }
+    private static int U16(ByteBuffer buf, int p){
+        return (buf.getShort(p) & 0xFFFF);
+    }
+    private static long U32(ByteBuffer buf, int p){
+        return (buf.getInt(p) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Input stream over a buffer.
+     */
+    final static class Input
+        extends InputStream
+    {
+        private final ByteBuffer buf;
+
+        Input(ByteBuffer buf){
+            super();
+            this.buf = buf.duplicate();
+        }
+
+        @Override
+        public int read(){
+            if (this.buf.hasRemaining())
+                return (this.buf.get() & 0xFF);
+            else
+                return -1;
+        }
+        @Override
+        public int read(byte[] b, int off, int len){
+            if (0 == len)
+                return 0;
+            else if (this.buf.hasRemaining()){
+                len = Math.min(len,this.buf.remaining());
+                this.buf.get(b,off,len);
+                return len;
+            }
+            else
+                return -1;
+        }
+        @Override
+        public int available(){
+            return this.buf.remaining();
+        }
+    }
+}
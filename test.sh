@@ -0,0 +1,34 @@
+#!/bin/bash
+#
+# Compile and run the RPKG tests with the JDK alone.  Each test runs
+# in its own JVM.
+#
+#   ./test.sh [TestName]*
+#
+build=${TMPDIR:-/tmp}/rpkg-test-classes
+
+rm -rf ${build} && mkdir -p ${build} &&
+    javac -nowarn -d ${build} $(find src test -name '*.java') 2>&1 | egrep -v '^Note:'
+
+if [ ! -f ${build}/syntelos/rpkg/Test.class ]
+then
+    cat<<EOF2>&2
+$0 error from 'javac -d ${build}'.
+EOF2
+    exit 1
+fi
+
+if [ -z "$1" ]
+then
+    set -- $(cd test/syntelos/rpkg && ls Test?*.java | sed 's/\.java$//')
+fi
+
+failed=0
+for test in "$@"
+do
+    if ! java -cp ${build} syntelos.rpkg.${test}
+    then
+        failed=1
+    fi
+done
+exit ${failed}
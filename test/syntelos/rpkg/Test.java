@@ -0,0 +1,184 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Test support.  Each test is a class with a main method, run in its
+ * own JVM by "test.sh", as the package store is global.
+ * 
+ * <pre>
+ * public static void main(String[] argv){
+ *     Test.Run("name",() -> { ... Test.Assert(...); });
+ * }
+ * </pre>
+ */
+abstract class Test
+    extends Object
+{
+    /**
+     * Test body
+     */
+    interface Body {
+
+        void run() throws Exception;
+    }
+
+    /**
+     * Run a test body, and exit with status one when it fails.
+     */
+    static void Run(String name, Body body){
+        try {
+            body.run();
+
+            System.out.println("PASS "+name);
+        }
+        catch (Throwable t){
+            System.out.println("FAIL "+name);
+            t.printStackTrace(System.out);
+            System.exit(1);
+        }
+    }
+    static void Assert(boolean condition, String message){
+        if (!condition){
+            throw new AssertionError(message);
+        }
+    }
+    static void Equal(Object expected, Object actual, String message){
+        if (!java.util.Objects.equals(expected,actual)){
+            throw new AssertionError(message+": expected <"+expected+"> found <"+actual+">");
+        }
+    }
+    /**
+     * @return New temporary directory
+     */
+    static File Dir(String name)
+        throws IOException
+    {
+        File dir = Files.createTempDirectory("rpkg-"+name).toFile();
+        dir.deleteOnExit();
+        return dir;
+    }
+    /**
+     * @param version Implementation version
+     * @param packages Sealed package names
+     * 
+     * @return Manifest with a sealed section for each package
+     */
+    static Manifest Sealed(String version, String... packages){
+        Manifest man = new Manifest();
+        man.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION,"1.0");
+        for (String name : packages){
+            Attributes attr = new Attributes();
+            attr.put(Attributes.Name.SEALED,"true");
+            attr.put(Attributes.Name.IMPLEMENTATION_VERSION,version);
+            man.getEntries().put(name.replace('.','/')+"/",attr);
+        }
+        return man;
+    }
+    /**
+     * Write an archive.
+     * 
+     * @param file Archive file
+     * @param man Archive manifest
+     * @param classes Class names, each an empty public class, or
+     * resource names (having a '/'), each containing its name
+     * 
+     * @return Archive file
+     */
+    static File Jar(File file, Manifest man, String... classes)
+        throws IOException
+    {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file),man);
+        try {
+            for (String cn : classes){
+                if (0 < cn.indexOf('/')){
+                    out.putNextEntry(new JarEntry(cn));
+                    out.write(cn.getBytes(StandardCharsets.UTF_8));
+                }
+                else {
+                    String name = cn.replace('.','/');
+                    out.putNextEntry(new JarEntry(name+".class"));
+                    out.write(Class(name));
+                }
+                out.closeEntry();
+            }
+        }
+        finally {
+            out.close();
+        }
+        return file;
+    }
+    /**
+     * Collect garbage until the reference is cleared.
+     * 
+     * @return Reference was cleared
+     */
+    static boolean Collect(Reference<?> ref)
+        throws InterruptedException
+    {
+        for (int cc = 0; cc < 50 && null != ref.get(); cc++){
+            System.gc();
+            Thread.sleep(20);
+        }
+        return (null == ref.get());
+    }
+    /**
+     * @param name Internal class name
+     * 
+     * @return Class file for an empty public class
+     */
+    private static byte[] Class(String name){
+        byte[] n = name.getBytes(StandardCharsets.UTF_8);
+        byte[] o = "java/lang/Object".getBytes(StandardCharsets.UTF_8);
+        java.io.ByteArrayOutputStream buf = new java.io.ByteArrayOutputStream();
+        java.io.DataOutputStream out = new java.io.DataOutputStream(buf);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+            out.writeShort(5);
+            out.writeByte(1); out.writeShort(n.length); out.write(n);
+            out.writeByte(7); out.writeShort(1);
+            out.writeByte(1); out.writeShort(o.length); out.write(o);
+            out.writeByte(7); out.writeShort(3);
+            out.writeShort(0x21);
+            out.writeShort(2);
+            out.writeShort(4);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.flush();
+        }
+        catch (IOException iox){
+            throw new IllegalStateException(iox);
+        }
+        return buf.toByteArray();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A cache record that cannot be decoded is a cache miss: the
+ * manifest is read, and the record is replaced.
+ */
+public class TestCache
+    extends Test
+{
+    public static void main(String[] argv){
+        Test.Run("cache corrupt record",() -> {
+                File dir = Test.Dir("cache");
+                File jar = Test.Jar(new File(dir,"c.jar"),Test.Sealed("1.0","tc.p0"),"tc.p0.C");
+                File cache = new File(dir,"rpkg.cache");
+                Corrupt(cache,jar.getAbsoluteFile());
+                /*
+                 * Before the package subsystem is initialized
+                 */
+                System.setProperty("syntelos.rpkg.cache",cache.getPath());
+
+                URLClassLoader loader = new URLClassLoader(new URL[]{jar.toURI().toURL()},ClassLoader.getSystemClassLoader());
+                Package.Init(loader);
+
+                Package p = Package.getPackage("tc.p0");
+                Test.Assert(null != p,"package read from the manifest");
+                Test.Equal("1.0",p.getImplementationVersion(),"implementation version");
+                Test.Equal(0,PackageCache.Instance.hits(),"cache hits");
+                Test.Equal(1,PackageCache.Instance.misses(),"cache misses");
+
+                Package[] list = PackageCache.Instance.get(new PackageCache.Key(Package.InitArchive(new URL("jar:"+jar.toURI()+"!/META-INF/MANIFEST.MF"))),null,jar.toURI().toURL());
+                Test.Assert(null != list && 1 == list.length,"record replaced");
+            });
+    }
+    /**
+     * Write a cache file having a record for the archive that claims
+     * three packages, and has none.
+     */
+    private static void Corrupt(File cache, File jar)
+        throws Exception
+    {
+        byte[] path = jar.getPath().getBytes(StandardCharsets.UTF_8);
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(cache));
+        try {
+            out.writeInt(PackageCache.MAGIC);
+            out.writeInt(PackageCache.VERSION);
+            out.writeInt(1);
+            out.writeInt(4+path.length+8+8+4);
+            out.writeInt(path.length);
+            out.write(path);
+            out.writeLong(jar.length());
+            out.writeLong(jar.lastModified());
+            out.writeInt(3);
+        }
+        finally {
+            out.close();
+        }
+    }
+}
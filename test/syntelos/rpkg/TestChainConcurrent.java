@@ -0,0 +1,95 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Concurrent class loading through a link: every thread resolves each
+ * name to the same class, defined by the member that has it.
+ */
+public class TestChainConcurrent
+    extends Test
+{
+    private final static int THREADS = 8;
+
+    private final static int CLASSES = 200;
+
+    public static void main(String[] argv){
+        Test.Run("chain concurrent",() -> {
+                File dir = Test.Dir("concurrent");
+                String[] a = new String[CLASSES], b = new String[CLASSES];
+                for (int cc = 0; cc < CLASSES; cc++){
+                    a[cc] = "ta.p"+(cc % 10)+".C"+cc;
+                    b[cc] = "tb.p"+(cc % 10)+".C"+cc;
+                }
+                ClassLoader system = ClassLoader.getSystemClassLoader();
+                URLClassLoader la = new URLClassLoader(new URL[]{Test.Jar(new File(dir,"a.jar"),Test.Sealed("1.0","ta.p0","ta.p1"),a).toURI().toURL()},system);
+                URLClassLoader lb = new URLClassLoader(new URL[]{Test.Jar(new File(dir,"b.jar"),Test.Sealed("1.0","tb.p0","tb.p1"),b).toURI().toURL()},system);
+                Package.Init(la);
+                Package.Init(lb);
+
+                final ClassLoader link = Package.InitClassLoader();
+                Test.Assert(link instanceof ChainClassLoaderLink,"link over disjoint tails");
+
+                final String[] names = new String[2*CLASSES];
+                System.arraycopy(a,0,names,0,CLASSES);
+                System.arraycopy(b,0,names,CLASSES,CLASSES);
+
+                final Class<?>[][] found = new Class<?>[THREADS][names.length];
+                final AtomicReference<Throwable> failure = new AtomicReference<>();
+                final CountDownLatch start = new CountDownLatch(1);
+                Thread[] threads = new Thread[THREADS];
+                for (int tc = 0; tc < THREADS; tc++){
+                    final int tx = tc;
+                    threads[tc] = new Thread(() -> {
+                            try {
+                                start.await();
+                                for (int cc = 0; cc < names.length; cc++){
+                                    int ix = ((cc + (tx * 37)) % names.length);
+                                    found[tx][ix] = link.loadClass(names[ix]);
+                                }
+                            }
+                            catch (Throwable t){
+                                failure.compareAndSet(null,t);
+                            }
+                        });
+                    threads[tc].start();
+                }
+                start.countDown();
+                for (Thread t : threads){
+                    t.join();
+                }
+                if (null != failure.get()){
+                    throw new AssertionError(failure.get());
+                }
+                for (int cc = 0; cc < names.length; cc++){
+                    Class<?> c = found[0][cc];
+                    Test.Equal(names[cc],c.getName(),"class name");
+                    Test.Equal((cc < CLASSES)?(la):(lb),c.getClassLoader(),names[cc]+" loader");
+                    for (int tc = 1; tc < THREADS; tc++){
+                        Test.Assert(c == found[tc][cc],names[cc]+" same class in every thread");
+                    }
+                }
+            });
+    }
+}
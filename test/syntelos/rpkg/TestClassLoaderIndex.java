@@ -0,0 +1,84 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * The ancestor relation of the class loader index, and the reuse of
+ * the numbers of collected class loaders.
+ */
+public class TestClassLoaderIndex
+    extends Test
+{
+    private final static int ROUNDS = 20;
+
+    public static void main(String[] argv){
+        Test.Run("class loader ancestors",() -> {
+                ClassLoader system = ClassLoader.getSystemClassLoader();
+                URLClassLoader a = new URLClassLoader(new URL[0],system);
+                URLClassLoader b = new URLClassLoader(new URL[0],a);
+                URLClassLoader c = new URLClassLoader(new URL[0],system);
+
+                Test.Assert(ClassLoaderIndex.IsAncestor(system,b),"system is ancestor of b");
+                Test.Assert(ClassLoaderIndex.IsAncestor(a,b),"a is ancestor of b");
+                Test.Assert(!ClassLoaderIndex.IsAncestor(b,a),"b is not ancestor of a");
+                Test.Assert(!ClassLoaderIndex.IsAncestor(c,b),"c is not ancestor of b");
+                Test.Assert(!ClassLoaderIndex.IsAncestor(a,c),"a is not ancestor of c");
+                Test.Assert(!ClassLoaderIndex.IsAncestor(b,b),"b is not ancestor of b");
+            });
+        Test.Run("class loader number reuse",() -> {
+                ClassLoader system = ClassLoader.getSystemClassLoader();
+                Test.Assert(Test.Collect(Chain(system)),"chain collected");
+                final int numbers = ClassLoaderIndex.Numbers();
+
+                for (int cc = 0; cc < ROUNDS; cc++){
+
+                    Test.Assert(Test.Collect(Chain(system)),"chain collected");
+                }
+                Test.Assert(ClassLoaderIndex.Numbers() <= (numbers+4),"numbers of collected class loaders reused: "+numbers+" then "+ClassLoaderIndex.Numbers()+" after "+(2*ROUNDS)+" class loaders");
+                /*
+                 * Class loaders numbered after reuse are related as
+                 * their chains
+                 */
+                URLClassLoader a = new URLClassLoader(new URL[0],system);
+                URLClassLoader b = new URLClassLoader(new URL[0],a);
+                URLClassLoader c = new URLClassLoader(new URL[0],system);
+                Test.Assert(ClassLoaderIndex.IsAncestor(a,b),"a is ancestor of b");
+                Test.Assert(ClassLoaderIndex.IsAncestor(system,c),"system is ancestor of c");
+                Test.Assert(!ClassLoaderIndex.IsAncestor(c,b),"c is not ancestor of b");
+                Test.Assert(!ClassLoaderIndex.IsAncestor(b,c),"b is not ancestor of c");
+                Test.Assert(!ClassLoaderIndex.IsAncestor(a,c),"a is not ancestor of c");
+            });
+    }
+    /**
+     * Index a chain of two class loaders that are not retained.
+     * 
+     * @return Reference to the first
+     */
+    private static Reference<ClassLoader> Chain(ClassLoader parent){
+        URLClassLoader a = new URLClassLoader(new URL[0],parent);
+        URLClassLoader b = new URLClassLoader(new URL[0],a);
+        Test.Assert(ClassLoaderIndex.IsAncestor(a,b),"a is ancestor of b");
+        Test.Assert(ClassLoaderIndex.IsAncestor(parent,b),"parent is ancestor of b");
+        return new WeakReference<>(a);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.File;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Class loaders given to init are not retained: after a class loader
+ * has been collected, {@link Package#Expunge()} removes its packages,
+ * and the link over disjoint tails drops it.
+ */
+public class TestExpunge
+    extends Test
+{
+    public static void main(String[] argv){
+        Test.Run("expunge collected loader",() -> {
+                File dir = Test.Dir("expunge");
+                Reference<ClassLoader> ref = Loader(dir,"x","tx.p0");
+                Test.Assert(null != Package.getPackage("tx.p0"),"package initialized");
+                Test.Assert(Metrics.Instance.getParseTimes().keySet().stream().anyMatch(src -> src.contains("/x.jar!")),"parse time recorded");
+
+                Test.Assert(Test.Collect(ref),"loader collected");
+                for (int cc = 0; cc < 50 && null != Package.getPackage("tx.p0"); cc++){
+                    Package.Expunge();
+                    Thread.sleep(20);
+                }
+                Test.Assert(null == Package.getPackage("tx.p0"),"package expunged");
+                for (Package p : Package.getPackages()){
+                    Test.Assert(!p.name.startsWith("tx."),p.name+" expunged");
+                }
+                for (String src : Metrics.Instance.getParseTimes().keySet()){
+                    Test.Assert(!src.contains("/x.jar!"),src+" parse time expunged");
+                }
+            });
+        Test.Run("expunge link member",() -> {
+                File dir = Test.Dir("link");
+                ClassLoader system = ClassLoader.getSystemClassLoader();
+                URLClassLoader la = new URLClassLoader(new URL[]{Test.Jar(new File(dir,"a.jar"),Test.Sealed("1.0","ta.p0"),"ta.p0.A").toURI().toURL()},system);
+                Package.Init(la);
+                Reference<ClassLoader> lb = Loader(dir,"b","tb.p0");
+                /*
+                 * Held while the link is retained
+                 */
+                ClassLoader member = lb.get();
+
+                ClassLoader link = Package.InitClassLoader();
+                Test.Assert(link instanceof ChainClassLoaderLink,"link over disjoint tails");
+                Test.Equal(2,((ChainClassLoaderLink)link).members().length,"link members");
+                System.gc();
+                Test.Assert(link == Package.InitClassLoader(),"link retained");
+                member = null;
+
+                Test.Assert(Test.Collect(lb),"link member collected");
+                /*
+                 * The owner is enqueued after the reference is cleared
+                 */
+                for (int cc = 0; cc < 50 && la != Package.InitClassLoader(); cc++){
+                    Package.Expunge();
+                    Thread.sleep(20);
+                }
+                Test.Assert(la == Package.InitClassLoader(),"init class loader derived from the remaining tail");
+                Test.Equal(1,((ChainClassLoaderLink)link).members().length,"collected member dropped");
+                Test.Assert(null == Package.getPackage("tb.p0"),"member package expunged");
+                Test.Assert(null != Package.getPackage("ta.p0"),"remaining package");
+            });
+        Test.Run("expunge shared archive",() -> {
+                File dir = Test.Dir("shared");
+                File jar = Test.Jar(new File(dir,"s.jar"),Test.Sealed("1.0","sp.q"),"sp.q.C");
+                Reference<ClassLoader> la = Loader(jar);
+                URLClassLoader lb = new URLClassLoader(new URL[]{jar.toURI().toURL()},ClassLoader.getSystemClassLoader());
+                Package.Init(lb);
+                Test.Assert(lb != Package.getPackage("sp.q").getLoader(),"package of the first loader");
+
+                Test.Assert(Test.Collect(la),"first loader collected");
+                for (int cc = 0; cc < 50 && lb != Package.getPackage("sp.q").getLoader(); cc++){
+                    Package.Expunge();
+                    Thread.sleep(20);
+                }
+                Package p = Package.getPackage("sp.q");
+                Test.Assert(null != p,"shared package retained");
+                Test.Assert(lb == p.getLoader(),"package of the live loader");
+                Test.Assert(null != lb.loadClass("sp.q.C"),"class of the live loader");
+            });
+    }
+    /**
+     * @return Reference to an initialized class loader over an
+     * archive
+     */
+    private static Reference<ClassLoader> Loader(File jar)
+        throws Exception
+    {
+        URLClassLoader loader = new URLClassLoader(new URL[]{jar.toURI().toURL()},ClassLoader.getSystemClassLoader());
+        Package.Init(loader);
+        return new WeakReference<>(loader);
+    }
+    /**
+     * @return Reference to an initialized class loader over an
+     * archive of sealed packages
+     */
+    private static Reference<ClassLoader> Loader(File dir, String name, String... packages)
+        throws Exception
+    {
+        File jar = Test.Jar(new File(dir,name+".jar"),Test.Sealed("1.0",packages),packages[0]+".C");
+        URLClassLoader loader = new URLClassLoader(new URL[]{jar.toURI().toURL()},ClassLoader.getSystemClassLoader());
+        Package.Init(loader);
+        return new WeakReference<>(loader);
+    }
+}
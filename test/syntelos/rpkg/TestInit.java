@@ -0,0 +1,46 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import jdk.jfr.Recording;
+
+/**
+ * Init of the bootstrap class loader (null) is rejected before a
+ * chain event is recorded.
+ */
+public class TestInit
+    extends Test
+{
+    public static void main(String[] argv){
+        Test.Run("init bootstrap loader",() -> {
+                Recording recording = new Recording();
+                recording.enable("syntelos.rpkg.Chain");
+                recording.start();
+                try {
+                    Package.Init((ClassLoader)null);
+                    Test.Assert(false,"bootstrap loader accepted");
+                }
+                catch (IllegalArgumentException exc){
+                }
+                finally {
+                    recording.close();
+                }
+                Test.Equal(0,Package.getPackages().length,"packages");
+            });
+    }
+}
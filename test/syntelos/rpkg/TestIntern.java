@@ -0,0 +1,75 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.File;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Packages having equal attributes share their attribute values, and
+ * shared values are not retained after the packages referring to them
+ * have been expunged.
+ */
+public class TestIntern
+    extends Test
+{
+    public static void main(String[] argv){
+        Test.Run("intern shared",() -> {
+                File dir = Test.Dir("shared");
+                ClassLoader system = ClassLoader.getSystemClassLoader();
+                URLClassLoader la = new URLClassLoader(new URL[]{Test.Jar(new File(dir,"a.jar"),Test.Sealed("7.7","ta.p0")).toURI().toURL()},system);
+                URLClassLoader lb = new URLClassLoader(new URL[]{Test.Jar(new File(dir,"b.jar"),Test.Sealed("7.7","tb.p0")).toURI().toURL()},system);
+                Package.Init(la);
+                Package.Init(lb);
+
+                Package a = Package.getPackage("ta.p0");
+                Package b = Package.getPackage("tb.p0");
+                Test.Equal("7.7",a.getImplementationVersion(),"implementation version");
+                Test.Assert(a.getImplementationVersion() == b.getImplementationVersion(),"shared implementation version");
+            });
+        Test.Run("intern expunged",() -> {
+                File dir = Test.Dir("expunged");
+                Reference<String> version = Version(dir);
+
+                for (int cc = 0; cc < 50 && null != Package.getPackage("tx.p0"); cc++){
+                    System.gc();
+                    Thread.sleep(20);
+                    Package.Expunge();
+                }
+                Test.Assert(null == Package.getPackage("tx.p0"),"package expunged");
+                Test.Assert(Test.Collect(version),"interned version collected");
+            });
+    }
+    /**
+     * @return Reference to the interned implementation version of a
+     * package of a class loader that is not retained
+     */
+    private static Reference<String> Version(File dir)
+        throws Exception
+    {
+        File jar = Test.Jar(new File(dir,"x.jar"),Test.Sealed("8.8.expunged","tx.p0"));
+        URLClassLoader loader = new URLClassLoader(new URL[]{jar.toURI().toURL()},ClassLoader.getSystemClassLoader());
+        Package.Init(loader);
+        String version = Package.getPackage("tx.p0").getImplementationVersion();
+        Test.Equal("8.8.expunged",version,"implementation version");
+        return new WeakReference<>(version);
+    }
+}
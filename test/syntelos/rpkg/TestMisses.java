@@ -0,0 +1,103 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * A member that gains a class after a miss is asked again after a
+ * change to the package store, or after the miss time, and the
+ * misses recorded are bounded.
+ */
+public class TestMisses
+    extends Test
+{
+    /**
+     * Class loader whose class path grows
+     */
+    static class Growing
+        extends URLClassLoader
+    {
+        Growing(){
+            super(new URL[0]);
+        }
+
+        @Override
+        public void addURL(URL url){
+            super.addURL(url);
+        }
+    }
+
+    public static void main(String[] argv){
+        Test.Run("misses",() -> {
+                File dir = Test.Dir("misses");
+                File x = Test.Jar(new File(dir,"x.jar"),Test.Sealed("1.0"),"t.X");
+                File y = Test.Jar(new File(dir,"y.jar"),Test.Sealed("1.0"),"t.Y");
+                File z = Test.Jar(new File(dir,"z.jar"),Test.Sealed("1.0","z"));
+
+                Growing growing = new Growing();
+                ChainClassLoaderLink link = new ChainClassLoaderLink(new URLClassLoader(new URL[0]),growing);
+
+                Test.Assert(Missing(link,"t.X"),"t.X not yet defined");
+
+                growing.addURL(x.toURI().toURL());
+                /*
+                 * Store change
+                 */
+                Package.Init(new URLClassLoader(new URL[]{z.toURI().toURL()}));
+
+                Test.Equal(growing,link.loadClass("t.X").getClassLoader(),"t.X after store change");
+
+                Test.Assert(Missing(link,"t.Y"),"t.Y not yet defined");
+
+                growing.addURL(y.toURI().toURL());
+                /*
+                 * Miss time
+                 */
+                Thread.sleep(1100);
+
+                Test.Equal(growing,link.loadClass("t.Y").getClassLoader(),"t.Y after miss time");
+            });
+        Test.Run("misses bound",() -> {
+                ChainClassLoaderLink.Misses misses = new ChainClassLoaderLink.Misses(16);
+                for (int cc = 0; cc < 100; cc++){
+                    misses.add("t.M"+cc,1);
+                }
+                int count = 0;
+                for (int cc = 0; cc < 100; cc++){
+                    long set = misses.get("t.M"+cc);
+                    if (0L != set){
+                        Test.Assert(ChainClassLoaderLink.Misses.Contains(set,1),"member recorded");
+                        count += 1;
+                    }
+                }
+                Test.Assert(0 < count && count <= 16,"bounded misses: "+count);
+            });
+    }
+    private static boolean Missing(ClassLoader loader, String name){
+        try {
+            loader.loadClass(name);
+            return false;
+        }
+        catch (ClassNotFoundException cnfx){
+            return true;
+        }
+    }
+}
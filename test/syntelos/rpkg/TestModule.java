@@ -0,0 +1,76 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.File;
+import java.lang.module.Configuration;
+import java.lang.module.ModuleFinder;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * Module packages are named by the module descriptor, are sealed,
+ * and have the module name and version as implementation title and
+ * version, without reading the module manifest.
+ */
+public class TestModule
+    extends Test
+{
+    public static void main(String[] argv){
+        Test.Run("module finder",() -> {
+                File dir = Test.Dir("finder");
+                Manifest man = Test.Sealed("9.9","tm.a.p0");
+                man.getMainAttributes().put(Attributes.Name.SPECIFICATION_TITLE,"Spec A");
+                Test.Jar(new File(dir,"tm.a-1.2.jar"),man,"tm.a.p0.C0","tm.a.p1.C1");
+
+                ClassLoader loader = new URLClassLoader(new URL[0],ClassLoader.getSystemClassLoader());
+                Package.Init(ModuleFinder.of(dir.toPath()),loader);
+
+                for (String name : new String[]{"tm.a.p0","tm.a.p1"}){
+                    Package p = Package.getPackage(name);
+                    Test.Assert(null != p,name+" module package");
+                    Test.Assert(p.isSealed(),name+" sealed");
+                    Test.Equal("tm.a",p.getImplementationTitle(),name+" implementation title");
+                    Test.Equal("1.2",p.getImplementationVersion(),name+" implementation version");
+                    Test.Equal(null,p.getSpecificationTitle(),name+" manifest not read");
+                    Test.Assert(loader == p.getLoader(),name+" loader");
+                }
+            });
+        Test.Run("module layer",() -> {
+                File dir = Test.Dir("layer");
+                Test.Jar(new File(dir,"tm.b-2.0.jar"),new Manifest(),"tm.b.p0.C0");
+
+                ModuleLayer boot = ModuleLayer.boot();
+                Configuration cf = boot.configuration().resolve(ModuleFinder.of(dir.toPath()),ModuleFinder.of(),Set.of("tm.b"));
+                ModuleLayer layer = boot.defineModulesWithOneLoader(cf,ClassLoader.getSystemClassLoader());
+                Package.Init(layer);
+
+                Package p0 = Package.getPackage("tm.b.p0");
+                Test.Assert(null != p0,"module package");
+                Test.Assert(p0.isSealed(),"sealed");
+                Test.Equal("tm.b",p0.getImplementationTitle(),"implementation title");
+                Test.Equal("2.0",p0.getImplementationVersion(),"implementation version");
+                Test.Equal(null,p0.getSpecificationTitle(),"specification title");
+                Test.Assert(layer.findLoader("tm.b") == p0.getLoader(),"layer loader");
+                Test.Equal("tm.b",Class.forName("tm.b.p0.C0",false,p0.getLoader()).getModule().getName(),"module class");
+            });
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * Query terms are separated by '&amp;' outside of quoted values.
+ */
+public class TestQuery
+    extends Test
+{
+    public static void main(String[] argv){
+        Test.Run("query quoted value",() -> {
+                File dir = Test.Dir("query");
+                Manifest man = Test.Sealed("2.0","tq.p0","tq.p1");
+                man.getAttributes("tq/p0/").put(Attributes.Name.IMPLEMENTATION_VENDOR,"Smith & Sons");
+                man.getAttributes("tq/p1/").put(Attributes.Name.IMPLEMENTATION_VENDOR,"Smith");
+                File jar = Test.Jar(new File(dir,"q.jar"),man);
+                Package.Init(new URLClassLoader(new URL[]{jar.toURI().toURL()},ClassLoader.getSystemClassLoader()));
+
+                Package[] list = Package.query("vendor=\"Smith & Sons\" & impl.version>=2");
+                Test.Equal(1,list.length,"matches");
+                Test.Equal("tq.p0",list[0].name,"match");
+
+                Test.Equal(1,Package.query("vendor=Smith & prefix=tq").length,"unquoted matches");
+                try {
+                    Package.query("vendor=\"Smith & Sons");
+                    Test.Assert(false,"unbalanced quote accepted");
+                }
+                catch (IllegalArgumentException exc){
+                }
+            });
+    }
+}
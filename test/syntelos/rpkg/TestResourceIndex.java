@@ -0,0 +1,71 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Enumeration;
+
+/**
+ * The member resource indexes of a link follow changes to the class
+ * paths of the members.
+ */
+public class TestResourceIndex
+    extends Test
+{
+    public static void main(String[] argv){
+        Test.Run("resource index",() -> {
+                File dir = Test.Dir("resources");
+                File a = Test.Jar(new File(dir,"a.jar"),Test.Sealed("1.0"),"ra/a.txt");
+                File b = Test.Jar(new File(dir,"b.jar"),Test.Sealed("1.0"),"rb/b.txt");
+                File c = Test.Jar(new File(dir,"c.jar"),Test.Sealed("1.0"),"rc/c.txt");
+                File d = Test.Jar(new File(dir,"d.jar"),Test.Sealed("1.0"),"rd/d.txt");
+                File z = Test.Jar(new File(dir,"z.jar"),Test.Sealed("1.0","z"));
+
+                TestMisses.Growing growing = new TestMisses.Growing();
+                growing.addURL(b.toURI().toURL());
+                ChainClassLoaderLink link = new ChainClassLoaderLink(new URLClassLoader(new URL[]{a.toURI().toURL()}),growing);
+
+                Test.Assert(null != link.getResource("ra/a.txt"),"ra/a.txt");
+                Test.Assert(null != link.getResource("rb/b.txt"),"rb/b.txt");
+                Test.Assert(null == link.getResource("rc/c.txt"),"rc/c.txt not yet defined");
+                Test.Assert(null == link.getResource("rd/d.txt"),"rd/d.txt not yet defined");
+                /*
+                 * Index time
+                 */
+                growing.addURL(c.toURI().toURL());
+                Thread.sleep(1100);
+                Test.Assert(null != link.getResource("rc/c.txt"),"rc/c.txt after index time");
+                /*
+                 * Store change
+                 */
+                growing.addURL(d.toURI().toURL());
+                Package.Init(new URLClassLoader(new URL[]{z.toURI().toURL()}));
+                Test.Assert(null != link.getResource("rd/d.txt"),"rd/d.txt after store change");
+
+                int count = 0;
+                Enumeration<URL> enu = link.getResources("META-INF/MANIFEST.MF");
+                while (enu.hasMoreElements()){
+                    enu.nextElement();
+                    count += 1;
+                }
+                Test.Assert(4 <= count,"manifests of a, b, c and d");
+            });
+    }
+}
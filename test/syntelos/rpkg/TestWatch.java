@@ -0,0 +1,133 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Archives read by init are watched: creating, modifying or deleting
+ * an archive refreshes its packages and notifies the listeners, and a
+ * failing listener does not stop the watch.
+ */
+public class TestWatch
+    extends Test
+{
+    private final static String NAME = "tw.p0";
+
+    private final static BlockingQueue<Package[][]> Refreshed = new LinkedBlockingQueue<>();
+
+    private static File Dir, Archive;
+
+    private static ClassLoader Loader;
+
+
+    public static void main(String[] argv){
+        /*
+         * Before the package subsystem is initialized
+         */
+        System.setProperty("syntelos.rpkg.watch","true");
+        System.setProperty("syntelos.rpkg.watch.delay","50");
+        System.setProperty("syntelos.rpkg.watch.max","400");
+
+        Test.Run("watch init",() -> {
+                Dir = Test.Dir("watch");
+                Archive = Test.Jar(new File(Dir,"a.jar"),Test.Sealed("1.0",NAME),NAME+".C");
+                URLClassLoader loader = new URLClassLoader(new URL[]{Archive.toURI().toURL()},ClassLoader.getSystemClassLoader());
+                Package.Init(loader);
+                Test.Equal("1.0",Package.getPackage(NAME).getImplementationVersion(),"implementation version");
+
+                Package.AddListener((removed,added) -> {
+                        throw new IllegalStateException("failing listener");
+                    });
+                Package.AddListener((removed,added) -> Refreshed.add(new Package[][]{removed,added}));
+                /*
+                 * Retained for the test
+                 */
+                Loader = loader;
+            });
+        Test.Run("watch modify",() -> {
+                Test.Jar(Archive,Test.Sealed("2.0",NAME),NAME+".C");
+
+                Package[][] ev = Next();
+                Test.Equal("1.0",Find(ev[0]).getImplementationVersion(),"removed version");
+                Test.Equal("2.0",Find(ev[1]).getImplementationVersion(),"added version");
+                Test.Equal("2.0",Package.getPackage(NAME).getImplementationVersion(),"refreshed version");
+                Test.Assert(String.valueOf(Metrics.Instance.getLastFailure()).contains("failing listener"),"listener failure recorded");
+            });
+        Test.Run("watch delete",() -> {
+                Files.delete(Archive.toPath());
+
+                Package[][] ev = Next();
+                Test.Equal("2.0",Find(ev[0]).getImplementationVersion(),"removed version");
+                Test.Equal(0,ev[1].length,"added");
+                Test.Assert(null == Package.getPackage(NAME),"package removed");
+            });
+        Test.Run("watch create",() -> {
+                File tmp = Test.Jar(new File(Dir,"a.tmp"),Test.Sealed("3.0",NAME),NAME+".C");
+                Files.move(tmp.toPath(),Archive.toPath(),StandardCopyOption.ATOMIC_MOVE);
+
+                Package[][] ev = Next();
+                Test.Equal(0,ev[0].length,"removed");
+                Test.Equal("3.0",Find(ev[1]).getImplementationVersion(),"added version");
+                Test.Equal("3.0",Package.getPackage(NAME).getImplementationVersion(),"created version");
+            });
+        Test.Run("watch maximum wait",() -> {
+                /*
+                 * Changes more frequent than the delay are refreshed
+                 * after the maximum wait
+                 */
+                final long end = System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(1500);
+                int version = 4;
+                boolean refreshed = false;
+                while (System.nanoTime() < end){
+                    Test.Jar(Archive,Test.Sealed((version++)+".0",NAME),NAME+".C");
+                    Thread.sleep(20);
+                    if (null != Refreshed.poll()){
+                        refreshed = true;
+                    }
+                }
+                Test.Assert(refreshed,"refreshed during continual changes");
+            });
+    }
+
+    /**
+     * @return Next listener notification
+     */
+    private static Package[][] Next()
+        throws InterruptedException
+    {
+        Package[][] ev = Refreshed.poll(10,TimeUnit.SECONDS);
+        Test.Assert(null != ev,"listener notified");
+        return ev;
+    }
+    private static Package Find(Package[] list){
+        for (Package p : list){
+            if (NAME.equals(p.name)){
+                return p;
+            }
+        }
+        throw new AssertionError(NAME+" not found");
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Syntelos RPKG
+ * Copyright (C) 2018, John Pritchard, Syntelos
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ */
+package syntelos.rpkg;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Archive reading: plain and nested archives are read, and malformed
+ * archives are reported with an IOException, so that Init continues.
+ */
+public class TestZipBuffer
+    extends Test
+{
+    public static void main(String[] argv){
+        Test.Run("zip buffer",() -> {
+                File dir = Test.Dir("zip");
+                File lib = Test.Jar(new File(dir,"lib.jar"),Test.Sealed("2.0","zl"),"zl.C");
+                File plain = Test.Jar(new File(dir,"plain.jar"),Test.Sealed("1.0","zp"),"zp.C");
+
+                Manifest man = ZipBuffer.Manifest(plain);
+                Test.Assert(null != man && null != man.getAttributes("zp/"),"plain manifest");
+                /*
+                 * Nested archives, stored and deflated
+                 */
+                File fat = new File(dir,"fat.jar");
+                byte[] bytes = Files.readAllBytes(lib.toPath());
+                JarOutputStream out = new JarOutputStream(new FileOutputStream(fat),Test.Sealed("1.0"));
+                try {
+                    JarEntry stored = new JarEntry("lib/stored.jar");
+                    stored.setMethod(ZipEntry.STORED);
+                    stored.setSize(bytes.length);
+                    CRC32 crc = new CRC32();
+                    crc.update(bytes);
+                    stored.setCrc(crc.getValue());
+                    out.putNextEntry(stored);
+                    out.write(bytes);
+                    out.closeEntry();
+
+                    out.putNextEntry(new JarEntry("lib/deflated.jar"));
+                    out.write(bytes);
+                    out.closeEntry();
+                }
+                finally {
+                    out.close();
+                }
+                for (String name : new String[]{"lib/stored.jar","lib/deflated.jar"}){
+                    ZipBuffer zip = ZipBuffer.Open(fat,new String[]{name});
+                    try {
+                        Test.Assert(null != zip.manifest().getAttributes("zl/"),name+" manifest");
+                        Test.Assert(null != zip.get("zl/C.class"),name+" class");
+                    }
+                    finally {
+                        zip.close();
+                    }
+                }
+                /*
+                 * Malformed archives
+                 */
+                File truncated = new File(dir,"truncated.jar");
+                Files.write(truncated.toPath(),Arrays.copyOfRange(bytes,bytes.length/2,bytes.length));
+                File garbage = new File(dir,"garbage.jar");
+                Files.write(garbage.toPath(),new byte[]{'P','K',5,6,1,2,3});
+                File empty = new File(dir,"empty.jar");
+                Files.write(empty.toPath(),new byte[0]);
+                for (File file : new File[]{truncated,garbage,empty}){
+                    try {
+                        ZipBuffer.Manifest(file);
+                        throw new AssertionError(file.getName()+" is read");
+                    }
+                    catch (IOException expected){
+                    }
+                }
+                /*
+                 * Init continues past a malformed archive
+                 */
+                URL[] classpath = new URL[]{truncated.toURI().toURL(),garbage.toURI().toURL(),plain.toURI().toURL()};
+                Package.Init(new URLClassLoader(classpath),false);
+                Test.Assert(null != Package.getPackage("zp"),"package after malformed archives");
+            });
+    }
+}